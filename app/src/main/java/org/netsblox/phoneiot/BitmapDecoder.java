@@ -0,0 +1,102 @@
+package org.netsblox.phoneiot;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.media.ExifInterface;
+import android.os.Build;
+
+import java.io.ByteArrayInputStream;
+
+// decodes images no bigger than the box they're shown in (see DecodeSizing), rather than at full resolution and scaling down later.
+// bounds are read first so the decoder can subsample, the rest of the downscale is done by the decoder itself (density scaling),
+// and exif rotation is applied in the same resampling pass as the scale. results are tracked by the pool (see BitmapPool), and decoded into its free bitmaps (inBitmap).
+// safe to use from multiple threads
+final class BitmapDecoder {
+    private interface Source {
+        Bitmap decode(BitmapFactory.Options opts);
+    }
+
+    private final BitmapPool pool;
+
+    BitmapDecoder(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    Bitmap decode(byte[] buf, int offset, int length, int boxWidth, int boxHeight, boolean cover) {
+        int rotation = 0;
+        if (Build.VERSION.SDK_INT >= 24) { // no stream constructor before this
+            try { rotation = DecodeSizing.exifRotation(new ExifInterface(new ByteArrayInputStream(buf, offset, length)).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)); }
+            catch (Exception ignored) {} // not a format with exif
+        }
+        return decode(opts -> BitmapFactory.decodeByteArray(buf, offset, length, opts), rotation, boxWidth, boxHeight, cover);
+    }
+    Bitmap decode(String path, int boxWidth, int boxHeight, boolean cover) {
+        int rotation = 0;
+        try { rotation = DecodeSizing.exifRotation(new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)); }
+        catch (Exception ignored) {}
+        return decode(opts -> BitmapFactory.decodeFile(path, opts), rotation, boxWidth, boxHeight, cover);
+    }
+
+    private Bitmap decode(Source src, int rotation, int boxWidth, int boxHeight, boolean cover) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        src.decode(opts);
+        int width = opts.outWidth, height = opts.outHeight;
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("unsupported image format");
+
+        boolean swap = rotation % 180 != 0;
+        double scale = DecodeSizing.targetScale(swap ? height : width, swap ? width : height, boxWidth, boxHeight, cover);
+        int targetWidth = Math.max(1, (int)Math.ceil(width * scale)), targetHeight = Math.max(1, (int)Math.ceil(height * scale)); // before rotation
+
+        boolean alpha = !"image/jpeg".equals(opts.outMimeType); // jpeg is the only format we know can't have transparency before decoding
+        opts.inJustDecodeBounds = false;
+        opts.inMutable = true; // so it can be reused once it's replaced
+        opts.inPreferredConfig = BitmapPool.configFor(alpha);
+        opts.inSampleSize = DecodeSizing.sampleSize(width, height, targetWidth, targetHeight);
+        int sampledWidth = width / opts.inSampleSize, sampledHeight = height / opts.inSampleSize;
+        int decodedWidth = sampledWidth, decodedHeight = sampledHeight;
+        if (rotation == 0 && sampledWidth > targetWidth) { // the decoder can finish the scaling itself - with a rotation, we do it in the rotation pass instead
+            opts.inScaled = true;
+            opts.inDensity = sampledWidth;
+            opts.inTargetDensity = targetWidth;
+            decodedWidth = targetWidth;
+            decodedHeight = targetHeight;
+        }
+
+        opts.inBitmap = pool.take((long)decodedWidth * decodedHeight * BitmapPool.bytesPerPixel(alpha));
+        Bitmap img;
+        try { img = src.decode(opts); }
+        catch (IllegalArgumentException ex) { // pooled bitmap wasn't compatible after all
+            if (opts.inBitmap == null) throw ex;
+            pool.release(opts.inBitmap);
+            opts.inBitmap = null;
+            img = src.decode(opts);
+        }
+        if (img == null) throw new IllegalArgumentException("failed to decode image");
+        img.setDensity(Bitmap.DENSITY_NONE); // we always draw to explicit rects - don't let the canvas rescale it
+
+        if (rotation == 0 && img.getWidth() <= targetWidth + 1) {
+            pool.track(img);
+            return img;
+        }
+
+        // a single resampling pass for the rest of the scale and the rotation
+        int outWidth = swap ? targetHeight : targetWidth, outHeight = swap ? targetWidth : targetHeight;
+        Matrix matrix = new Matrix();
+        matrix.postScale((float)targetWidth / img.getWidth(), (float)targetHeight / img.getHeight());
+        matrix.postRotate(rotation);
+        switch (rotation) { // move the rotated image back to the origin
+            case 90: matrix.postTranslate(outWidth, 0); break;
+            case 180: matrix.postTranslate(outWidth, outHeight); break;
+            case 270: matrix.postTranslate(0, outHeight); break;
+        }
+        Bitmap res = pool.get(outWidth, outHeight, img.hasAlpha());
+        res.eraseColor(0);
+        new Canvas(res).drawBitmap(img, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.release(img);
+        return res;
+    }
+}
@@ -0,0 +1,123 @@
+package org.netsblox.phoneiot;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+// all the bitmaps we hold on to go through here, so they can be counted against one byte budget.
+// bitmaps that are given back are kept by size class (see SizeClassPool) and reused (reconfigure or inBitmap) instead of allocating new ones,
+// opaque images use RGB_565 (half the memory), and when live + free bytes go over the budget the listener is told so it can evict
+// image content to compressed bytes (see compress and restore). safe to use from multiple threads
+final class BitmapPool {
+    interface Listener {
+        void overBudget(); // called with no pool locks held - but possibly with other locks held, so this should only schedule the eviction
+    }
+
+    private final SizeClassPool<Bitmap> free = new SizeClassPool<>();   // guarded by this
+    private final HashMap<Bitmap, Long> live = new HashMap<>();          // tracked bitmaps and their sizes - guarded by this
+    private long liveBytes = 0;                                          // guarded by this
+    private long budget;                                                 // guarded by this
+    private final Listener listener;
+    private static final SizeClassPool.Sink<Bitmap> RECYCLE = Bitmap::recycle;
+
+    BitmapPool(long budget, Listener listener) {
+        this.budget = budget;
+        this.listener = listener;
+    }
+
+    static Bitmap.Config configFor(boolean alpha) {
+        return alpha ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+    }
+    static int bytesPerPixel(boolean alpha) {
+        return alpha ? 4 : 2;
+    }
+
+    // a tracked, mutable bitmap with undefined content
+    Bitmap get(int width, int height, boolean alpha) {
+        Bitmap res = take((long)width * height * bytesPerPixel(alpha));
+        if (res != null) {
+            try { res.reconfigure(width, height, configFor(alpha)); }
+            catch (IllegalArgumentException ex) {
+                res.recycle();
+                res = null;
+            }
+        }
+        if (res == null) res = Bitmap.createBitmap(width, height, configFor(alpha));
+        track(res);
+        return res;
+    }
+    // a free bitmap with at least this many bytes allocated (for decoding into), or null - it must be tracked or released afterwards
+    Bitmap take(long bytes) {
+        if (Build.VERSION.SDK_INT < 19) return null; // no reconfigure, and inBitmap needs an exact size match
+        synchronized (this) {
+            return free.take(bytes);
+        }
+    }
+    // counts the bitmap against the budget until it's released
+    void track(Bitmap img) {
+        synchronized (this) {
+            if (live.containsKey(img)) return;
+            long bytes = getBytes(img);
+            live.put(img, bytes);
+            liveBytes += bytes;
+            free.trim(Math.max(0, budget - liveBytes), RECYCLE); // free bitmaps are the first to go
+            if (liveBytes <= budget) return;
+        }
+        listener.overBudget();
+    }
+    // gives a bitmap back for reuse - the caller must not touch it again
+    void release(Bitmap img) {
+        if (img == null || img.isRecycled()) return;
+        synchronized (this) {
+            Long bytes = live.remove(img);
+            if (bytes != null) liveBytes -= bytes;
+            if (Build.VERSION.SDK_INT >= 19 && img.isMutable()) {
+                free.put(img, img.getAllocationByteCount());
+                free.trim(Math.max(0, budget - liveBytes), RECYCLE);
+                return;
+            }
+        }
+        img.recycle();
+    }
+
+    // lossless, so restoring doesn't change what the image reads as
+    byte[] compress(Bitmap img) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        img.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+    // decodes compressed content back into a (tracked) pooled bitmap
+    Bitmap restore(byte[] data, int width, int height, boolean alpha) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inMutable = true;
+        opts.inPreferredConfig = configFor(alpha);
+        opts.inBitmap = take((long)width * height * bytesPerPixel(alpha));
+        Bitmap res;
+        try { res = BitmapFactory.decodeByteArray(data, 0, data.length, opts); }
+        catch (IllegalArgumentException ex) { // pooled bitmap wasn't compatible after all
+            if (opts.inBitmap == null) throw ex;
+            release(opts.inBitmap);
+            opts.inBitmap = null;
+            res = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        }
+        if (res == null) throw new IllegalArgumentException("failed to restore image");
+        track(res);
+        return res;
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        free.trim(Math.max(0, budget - liveBytes), RECYCLE);
+    }
+    synchronized long getBudget() { return budget; }
+    synchronized long getLiveBytes() { return liveBytes; }
+    synchronized long getFreeBytes() { return free.getBytes(); }
+    synchronized boolean isOverBudget() { return liveBytes > budget; }
+
+    private static long getBytes(Bitmap img) {
+        return Build.VERSION.SDK_INT >= 19 ? img.getAllocationByteCount() : img.getByteCount();
+    }
+}
@@ -0,0 +1,131 @@
+package org.netsblox.phoneiot;
+
+import java.nio.ByteBuffer;
+
+// encodes compact ('k') sensor stream frames - only sensors whose values moved beyond their epsilon since they were last sent are included,
+// and every keyframeInterval ticks a keyframe with every active sensor (streamed or subscribed, due or not) is sent so the receiver can recover from lost frames.
+// each tick is prepare (what to read), encode, then commit once the frame was actually handed to the socket - a frame that never went out doesn't count as sent.
+// frame content: i32 timestamp, u8 flags (bit 0 = keyframe), i32 mask of included sensors, then a vector for each included sensor.
+// each vector is a u8 header (high bit = f32 values, otherwise f64; low 7 bits = length) followed by the values.
+final class CompactStreamEncoder {
+    static final int ENCODING_F64 = 0;
+    static final int ENCODING_F32 = 1;
+
+    private static final int FLAG_KEYFRAME = 1;
+    private static final int HEADER_F32 = 0x80;
+
+    private final double[][] last; // values as last sent (after rounding to the wire precision), null if never sent
+    private final double[][] staged; // values in the last encoded frame - copied to last on commit
+    private int stagedMask = 0;    // sensors in the last encoded frame (0 if there's nothing to commit)
+    private boolean stagedKeyframe = false;
+    private int candidates = 0;    // what the current tick covers (see prepare)
+    private boolean keyframe = false;
+    private final double[] epsilon;
+    private final int[] encoding;
+    private int keyframeInterval;
+    private int ticksUntilKeyframe = 0;
+
+    CompactStreamEncoder(int sensors, int keyframeInterval) {
+        if (sensors > SensorScheduler.MAX_SENSORS) throw new IllegalArgumentException("unsupported sensor count: " + sensors);
+        last = new double[sensors][];
+        staged = new double[sensors][];
+        epsilon = new double[sensors];
+        encoding = new int[sensors];
+        setKeyframeInterval(keyframeInterval);
+    }
+
+    int getSensorCount() { return last.length; }
+
+    synchronized void configure(int sensor, int encoding, double epsilon) {
+        if (encoding != ENCODING_F64 && encoding != ENCODING_F32) throw new IllegalArgumentException("unknown encoding: " + encoding);
+        this.encoding[sensor] = encoding;
+        this.epsilon[sensor] = Math.max(0, epsilon);
+    }
+    // number of ticks between keyframes (1 means every frame is a keyframe) - counted in ticks rather than frames sent,
+    // so a slow sensor that stopped changing still gets refreshed
+    synchronized void setKeyframeInterval(int ticks) {
+        keyframeInterval = Math.max(1, ticks);
+        if (ticksUntilKeyframe > keyframeInterval) ticksUntilKeyframe = keyframeInterval;
+    }
+    synchronized void requestKeyframe() {
+        ticksUntilKeyframe = 0;
+    }
+
+    // starts a tick where the due sensors are candidates and active is everything being streamed or subscribed.
+    // returns the sensors whose values must be passed to encode - the due ones, or all the active ones if this tick is a keyframe
+    synchronized int prepare(int due, int active) {
+        keyframe = ticksUntilKeyframe <= 0;
+        if (!keyframe) --ticksUntilKeyframe; // a keyframe stays due until one is committed
+        candidates = keyframe ? due | active : due;
+        return candidates;
+    }
+    // values[i] is the current data for sensor i (null if unsupported) - only the sensors returned by prepare are considered.
+    // returns the finished packet, or null if nothing changed and no keyframe is due (so there's nothing worth sending).
+    synchronized ByteBuffer encode(PacketEncoder enc, int timestamp, double[][] values) {
+        stagedMask = 0;
+        int present = 0;
+        for (int i = 0; i < last.length; ++i) {
+            if ((candidates & (1 << i)) == 0) continue;
+            if (keyframe || hasChanged(i, values[i])) present |= 1 << i;
+        }
+        if (present == 0 && !keyframe) return null;
+
+        enc.begin((byte)'k').putInt(timestamp).putByte(keyframe ? FLAG_KEYFRAME : 0).putInt(present);
+        for (int i = 0; i < last.length; ++i) {
+            if ((present & (1 << i)) == 0) continue;
+            double[] v = values[i];
+            if (v == null) {
+                enc.putByte(0);
+                staged[i] = null;
+                continue;
+            }
+
+            double[] sent = staged[i];
+            if (sent == null || sent.length != v.length) staged[i] = sent = new double[v.length];
+            if (encoding[i] == ENCODING_F32) {
+                enc.putByte(HEADER_F32 | v.length);
+                for (int j = 0; j < v.length; ++j) {
+                    float f = (float)v[j];
+                    enc.putFloat(f);
+                    sent[j] = f; // compare against what the receiver actually has so rounding error can't build up
+                }
+            }
+            else {
+                enc.putByte(v.length);
+                for (int j = 0; j < v.length; ++j) {
+                    enc.putDouble(v[j]);
+                    sent[j] = v[j];
+                }
+            }
+        }
+        stagedMask = present;
+        stagedKeyframe = keyframe;
+        return enc.finish();
+    }
+    // the last encoded frame went out - from now on, changes are relative to it
+    synchronized void commit() {
+        for (int i = 0; i < last.length; ++i) {
+            if ((stagedMask & (1 << i)) == 0) continue;
+            double[] v = staged[i];
+            if (v == null) last[i] = null;
+            else {
+                if (last[i] == null || last[i].length != v.length) last[i] = new double[v.length];
+                System.arraycopy(v, 0, last[i], 0, v.length);
+            }
+        }
+        if (stagedKeyframe) ticksUntilKeyframe = keyframeInterval - 1;
+        stagedMask = 0;
+        stagedKeyframe = false;
+    }
+
+    private boolean hasChanged(int sensor, double[] v) {
+        double[] sent = last[sensor];
+        if (v == null) return false; // unsupported sensors are only reported in keyframes
+        if (sent == null || sent.length != v.length) return true;
+        double eps = epsilon[sensor];
+        for (int j = 0; j < v.length; ++j) {
+            if (Math.abs(v[j] - sent[j]) > eps) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,47 @@
+package org.netsblox.phoneiot;
+
+// hash key for custom control ids - this can refer to a slice of a larger buffer, so lookups can be done straight from a received packet.
+// keys stored in a map must never change, so only the probe() variant should ever be repointed with set().
+final class ControlId {
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int hash;
+
+    private ControlId() { }
+
+    // makes a key over the given id (not copied - the caller must not modify it afterwards)
+    static ControlId of(byte[] id) {
+        return new ControlId().set(id, 0, id.length);
+    }
+    // makes an empty reusable key for lookups
+    static ControlId probe() {
+        return new ControlId();
+    }
+
+    ControlId set(byte[] buf, int offset, int length) {
+        this.bytes = buf;
+        this.offset = offset;
+        this.length = length;
+
+        int h = 1; // same as Arrays.hashCode()
+        for (int i = 0; i < length; ++i) h = 31 * h + buf[offset + i];
+        this.hash = h;
+
+        return this;
+    }
+
+    @Override
+    public int hashCode() { return hash; }
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof ControlId)) return false;
+        ControlId other = (ControlId)obj;
+        if (hash != other.hash || length != other.length) return false;
+        for (int i = 0; i < length; ++i) {
+            if (bytes[offset + i] != other.bytes[other.offset + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+package org.netsblox.phoneiot;
+
+// the size math for decoding images no bigger than they'll be displayed (see BitmapDecoder)
+final class DecodeSizing {
+    private DecodeSizing() {}
+
+    // smallest uniform scale (at most 1, never upscaled) that still shows the image at full resolution in a box,
+    // either covering the whole box (cropped or stretched) or fitting inside it. dimensions are as displayed (after any rotation)
+    static double targetScale(int width, int height, int boxWidth, int boxHeight, boolean cover) {
+        double sx = (double)boxWidth / width, sy = (double)boxHeight / height;
+        return Math.min(1, cover ? Math.max(sx, sy) : Math.min(sx, sy));
+    }
+
+    // largest power of two subsampling that keeps the image at least minWidth x minHeight (the decoder only subsamples exactly by powers of two)
+    static int sampleSize(int width, int height, int minWidth, int minHeight) {
+        int s = 1;
+        while (width / (s * 2) >= minWidth && height / (s * 2) >= minHeight) s *= 2;
+        return s;
+    }
+
+    // the clockwise rotation in degrees for an exif orientation tag - mirrored orientations aren't handled (cameras don't produce them)
+    static int exifRotation(int orientation) {
+        switch (orientation) {
+            case 6: return 90;  // ORIENTATION_ROTATE_90
+            case 3: return 180; // ORIENTATION_ROTATE_180
+            case 8: return 270; // ORIENTATION_ROTATE_270
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.netsblox.phoneiot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// encoded image bytes for each image control, so repeated reads of an unchanged image are a copy instead of an encode.
+// an entry is only valid for the exact (generation, params) it was encoded with - the generation is bumped whenever the image changes.
+// entries are evicted least recently used first to stay under a byte limit. safe to use from multiple threads.
+final class EncodedImageCache<K> {
+    static final class Entry {
+        final long generation;
+        final int params;
+        final byte[] data; // exactly sized - do not modify
+        final int format;
+
+        Entry(long generation, int params, byte[] data, int format) {
+            this.generation = generation;
+            this.params = params;
+            this.data = data;
+            this.format = format;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order (eldest first) - guarded by this
+    private long bytes = 0;                                                                // guarded by this
+    private long hits = 0, misses = 0;                                                     // guarded by this
+
+    EncodedImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // returns null unless the cached encoding is for this generation and params
+    synchronized Entry get(K key, long generation, int params) {
+        Entry e = entries.get(key);
+        if (e != null && e.generation == generation && e.params == params) {
+            ++hits;
+            return e;
+        }
+        ++misses;
+        return null;
+    }
+    // copies data[0..length) - this replaces anything cached for the key (there's only ever one entry per key).
+    // anything bigger than the whole cache is not kept
+    synchronized void put(K key, long generation, int params, byte[] data, int length, int format) {
+        remove(key);
+        if (length > maxBytes) return;
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        entries.put(key, new Entry(generation, params, copy, format));
+        bytes += length;
+
+        for (Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            bytes -= it.next().getValue().data.length;
+            it.remove();
+        }
+    }
+    synchronized void remove(K key) {
+        Entry e = entries.remove(key);
+        if (e != null) bytes -= e.data.length;
+    }
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    synchronized long getBytes() { return bytes; }
+    synchronized int size() { return entries.size(); }
+    synchronized long getHits() { return hits; }
+    synchronized long getMisses() { return misses; }
+}
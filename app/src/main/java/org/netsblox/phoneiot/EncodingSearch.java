@@ -0,0 +1,74 @@
+package org.netsblox.phoneiot;
+
+import java.util.Arrays;
+
+// the format-independent parts of picking image encoding parameters (see ImageEncoder) - what quality fits a byte budget, how much to scale down, and whether an image is flat graphics
+final class EncodingSearch {
+    private EncodingSearch() {}
+
+    interface Probe {
+        // encodes at the given quality and returns the resulting size in bytes
+        int encode(int quality) throws Exception;
+    }
+
+    // binary search for the highest quality in [min, max] whose encoding fits in the budget, trying max first (the common case for small images).
+    // at most maxProbes encodings are done - returns -1 if even min doesn't fit (or we ran out of probes before finding anything that fits).
+    // lastProbed[0] is set to the quality of the last encoding that was done, so the caller knows if it needs to re-encode the result
+    static int highestQualityWithin(Probe probe, int budget, int min, int max, int maxProbes, int[] lastProbed) throws Exception {
+        int probes = 0;
+        lastProbed[0] = -1;
+        if (maxProbes <= 0) return -1;
+
+        ++probes;
+        lastProbed[0] = max;
+        if (probe.encode(max) <= budget) return max;
+
+        int best = -1, lo = min, hi = max - 1; // hi is the best candidate left
+        while (lo <= hi && probes < maxProbes) {
+            int q = best < 0 && probes == 1 ? lo : (lo + hi + 1) / 2; // check the floor first - if that doesn't fit, nothing will
+            ++probes;
+            lastProbed[0] = q;
+            if (probe.encode(q) <= budget) {
+                best = q;
+                lo = q + 1;
+            }
+            else {
+                if (q == min) return -1;
+                hi = q - 1;
+            }
+        }
+        return best;
+    }
+
+    // linear scale factor to apply to both dimensions so an encoding of the given size would (roughly) fit in the budget.
+    // size is assumed to be proportional to area, with some margin since it isn't quite
+    static double scaleToFit(int size, int budget) {
+        if (size <= budget) return 1;
+        return Math.sqrt((double)budget / size) * 0.9;
+    }
+
+    // counts distinct colors (argb) in pixels[0..length), stopping once it's over the limit (so this costs at most O(length) with a fixed size table)
+    static int countColors(int[] pixels, int length, int limit, int[] table) {
+        int mask = table.length - 1; // must be a power of two, more than twice the limit
+        Arrays.fill(table, 0);
+        boolean hasZero = false;
+        int count = 0;
+        for (int i = 0; i < length; ++i) {
+            int c = pixels[i];
+            if (c == 0) { // zero marks empty slots, so track it separately
+                if (!hasZero) {
+                    hasZero = true;
+                    if (++count > limit) return count;
+                }
+                continue;
+            }
+            int h = (c * 0x9e3779b9) >>> 7 & mask;
+            while (table[h] != 0 && table[h] != c) h = (h + 1) & mask;
+            if (table[h] == 0) {
+                table[h] = c;
+                if (++count > limit) return count;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,55 @@
+package org.netsblox.phoneiot;
+
+// in-place iterative radix-2 fft over separate real/imaginary arrays.
+// the bit-reversal permutation and twiddle factors are precomputed, so transforms never allocate.
+final class FFT {
+    private final int n;
+    private final int[] bitReverse;
+    private final double[] cos; // twiddle factors for k in [0, n/2)
+    private final double[] sin;
+
+    FFT(int n) {
+        if (n < 2 || (n & (n - 1)) != 0) throw new IllegalArgumentException("fft size must be a power of two: " + n);
+        this.n = n;
+
+        int bits = Integer.numberOfTrailingZeros(n);
+        bitReverse = new int[n];
+        for (int i = 0; i < n; ++i) bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+
+        cos = new double[n / 2];
+        sin = new double[n / 2];
+        for (int k = 0; k < n / 2; ++k) {
+            double theta = -2 * Math.PI * k / n;
+            cos[k] = Math.cos(theta);
+            sin[k] = Math.sin(theta);
+        }
+    }
+
+    int size() { return n; }
+
+    // forward transform (no scaling) - re and im must both be at least size() long
+    void transform(double[] re, double[] im) {
+        for (int i = 0; i < n; ++i) {
+            int j = bitReverse[i];
+            if (j <= i) continue;
+            double t = re[i]; re[i] = re[j]; re[j] = t;
+            t = im[i]; im[i] = im[j]; im[j] = t;
+        }
+        for (int size = 2; size <= n; size <<= 1) {
+            int half = size >> 1;
+            int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0, w = 0; k < half; ++k, w += step) {
+                    int a = start + k, b = a + half;
+                    double wr = cos[w], wi = sin[w];
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.netsblox.phoneiot;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+// reassembles fragmented messages (see FragmentSender for the format) into pooled buffers.
+// an incomplete message that goes quiet has its missing fragments requested (nack) a few times before it is dropped.
+// completed messages are remembered for the timeout, so late duplicates of their fragments don't start them over.
+// this is not thread safe - it is meant to be owned by the receiving thread.
+final class FragmentAssembler {
+    interface NackSink {
+        // missing[0..count) are the indices still needed - the array is reused, so don't hold on to it
+        void nack(SocketAddress to, int id, int[] missing, int count);
+    }
+
+    static final class Message {
+        byte[] data; // pooled - only valid until release()
+        int length;
+        SocketAddress from;
+    }
+
+    private static final class Pending {
+        final int id;
+        final SocketAddress from;
+        final byte[] data;
+        final int total, count;
+        final boolean[] received;
+        int remaining;
+        long lastActivity;
+        long nextNack;
+        int nacks = 0;
+
+        Pending(int id, SocketAddress from, byte[] data, int total, int count) {
+            this.id = id;
+            this.from = from;
+            this.data = data;
+            this.total = total;
+            this.count = count;
+            this.received = new boolean[count];
+            this.remaining = count;
+        }
+    }
+
+    private static final class Completed {
+        final int id;
+        final SocketAddress from;
+        final long expires;
+
+        Completed(int id, SocketAddress from, long expires) {
+            this.id = id;
+            this.from = from;
+            this.expires = expires;
+        }
+    }
+
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final int MAX_NACKS = 5;
+    private static final int MAX_COMPLETED = 256;
+
+    private final int maxMessageSize;
+    private final int maxPending;
+    private final long nackDelay;
+    private final long timeout;
+    private final ArrayList<Pending> pending = new ArrayList<>();
+    private final ArrayList<byte[]> pool = new ArrayList<>();
+    private final ArrayDeque<Completed> completed = new ArrayDeque<>(); // oldest first
+    private int[] missing = new int[0];
+
+    // nackDelay is how long a message can be quiet before we ask for what's missing (and between asks), timeout is how long before we give up
+    FragmentAssembler(int maxMessageSize, int maxPending, long nackDelay, long timeout) {
+        this.maxMessageSize = maxMessageSize;
+        this.maxPending = maxPending;
+        this.nackDelay = nackDelay;
+        this.timeout = timeout;
+    }
+
+    int getPendingCount() { return pending.size(); }
+
+    // adds a fragment - returns the whole message once its last fragment arrives (pass it to release() when done), otherwise null.
+    // invalid or duplicate fragments (including ones for messages that already completed) are ignored
+    Message accept(SocketAddress from, int id, int total, int offset, int index, int count, byte[] src, int srcOffset, int length, long now) {
+        if (total <= 0 || total > maxMessageSize || count <= 0 || index < 0 || index >= count || offset < 0 || length < 0 || offset + length > total) return null;
+
+        Pending msg = find(from, id);
+        if (msg == null) {
+            if (isCompleted(from, id, now)) return null;
+            if (pending.size() >= maxPending) drop(oldest());
+            msg = new Pending(id, from, obtain(total), total, count);
+            msg.nextNack = now + nackDelay;
+            pending.add(msg);
+        }
+        else if (msg.total != total || msg.count != count) return null; // inconsistent with what we already have
+        if (msg.received[index]) return null;
+
+        System.arraycopy(src, srcOffset, msg.data, offset, length);
+        msg.received[index] = true;
+        msg.lastActivity = now;
+        msg.nextNack = now + nackDelay;
+        if (--msg.remaining != 0) return null;
+
+        pending.remove(msg);
+        if (completed.size() >= MAX_COMPLETED) completed.removeFirst();
+        completed.addLast(new Completed(msg.id, msg.from, now + timeout));
+        Message res = new Message();
+        res.data = msg.data;
+        res.length = msg.total;
+        res.from = msg.from;
+        return res;
+    }
+    void release(Message msg) {
+        if (msg.data != null && pool.size() < MAX_POOLED_BUFFERS) pool.add(msg.data);
+        msg.data = null;
+    }
+
+    // sends any nacks that are due and drops messages that timed out - returns the next time this needs to be called (Long.MAX_VALUE if nothing is pending)
+    long poll(long now, NackSink sink) {
+        expireCompleted(now);
+        long next = Long.MAX_VALUE;
+        for (int i = pending.size() - 1; i >= 0; --i) {
+            Pending msg = pending.get(i);
+            if (now - msg.lastActivity >= timeout) {
+                drop(msg);
+                continue;
+            }
+            if (msg.nacks < MAX_NACKS && now >= msg.nextNack) {
+                if (missing.length < msg.count) missing = new int[msg.count];
+                int n = 0;
+                for (int k = 0; k < msg.count; ++k) if (!msg.received[k]) missing[n++] = k;
+                sink.nack(msg.from, msg.id, missing, n);
+                ++msg.nacks;
+                msg.nextNack = now + nackDelay;
+            }
+            next = Math.min(next, msg.nacks < MAX_NACKS ? msg.nextNack : msg.lastActivity + timeout);
+        }
+        return next;
+    }
+
+    private Pending find(SocketAddress from, int id) {
+        for (Pending msg : pending) if (msg.id == id && msg.from.equals(from)) return msg;
+        return null;
+    }
+    private boolean isCompleted(SocketAddress from, int id, long now) {
+        expireCompleted(now);
+        for (Completed c : completed) if (c.id == id && c.from.equals(from)) return true;
+        return false;
+    }
+    private void expireCompleted(long now) {
+        while (!completed.isEmpty() && now >= completed.peekFirst().expires) completed.removeFirst();
+    }
+    private Pending oldest() {
+        Pending res = pending.get(0);
+        for (Pending msg : pending) if (msg.lastActivity < res.lastActivity) res = msg;
+        return res;
+    }
+    private void drop(Pending msg) {
+        pending.remove(msg);
+        if (pool.size() < MAX_POOLED_BUFFERS) pool.add(msg.data);
+    }
+    // smallest pooled buffer that fits, otherwise a new one (rounded up to a power of two so it's more likely to be reusable)
+    private byte[] obtain(int size) {
+        int best = -1;
+        for (int i = 0; i < pool.size(); ++i) {
+            int len = pool.get(i).length;
+            if (len >= size && (best < 0 || len < pool.get(best).length)) best = i;
+        }
+        if (best >= 0) return pool.remove(best);
+        int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size - 1) << 1);
+        return new byte[Math.min(capacity, Math.max(size, maxMessageSize))];
+    }
+}
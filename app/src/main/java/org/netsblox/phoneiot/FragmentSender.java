@@ -0,0 +1,92 @@
+package org.netsblox.phoneiot;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// splits oversized messages into fragments and keeps recently sent ones around so that fragments the peer reports missing can be resent.
+// fragment content (after the '+' opcode) is u32 message id, u32 total length, u32 offset, u16 index, u16 count, then the bytes of the original message (starting with its opcode).
+// this is safe to use from multiple threads.
+final class FragmentSender {
+    static final int HEADER_SIZE = 16;
+
+    private static final class Sent {
+        final int id;
+        final byte[] data;
+        final int offset, length;
+        final long time;
+
+        Sent(int id, byte[] data, int offset, int length, long time) {
+            this.id = id;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.time = time;
+        }
+    }
+
+    private final int chunkSize;
+    private final long maxRetainedBytes;
+    private final long maxAge;
+    private final ArrayDeque<Sent> sent = new ArrayDeque<>(); // oldest first - guarded by this
+    private long retainedBytes = 0;                           // guarded by this
+    private int nextId;                                       // guarded by this
+
+    // chunkSize is the max message bytes per fragment - messages are retained (for resending) until they are older than maxAge or we're over maxRetainedBytes
+    FragmentSender(int chunkSize, long maxRetainedBytes, long maxAge, int firstId) {
+        this.chunkSize = chunkSize;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.maxAge = maxAge;
+        this.nextId = firstId;
+    }
+
+    int getChunkSize() { return chunkSize; }
+    int getFragmentCount(int length) { return (length + chunkSize - 1) / chunkSize; }
+    // the size of fragment index (header included) for a message of the given length
+    int getFragmentSize(int length, int index) { return HEADER_SIZE + Math.min(chunkSize, length - index * chunkSize); }
+
+    // starts tracking a message (the array must not be modified afterwards) and returns its id.
+    // messages too long to be described by the fragment header return 0 (can't be sent)
+    synchronized int add(byte[] data, int offset, int length, long now) {
+        if (getFragmentCount(length) > 0xffff) return 0;
+        int id = nextId++;
+        if (nextId == 0) nextId = 1; // zero is never a valid id
+        sent.addLast(new Sent(id, data, offset, length, now));
+        retainedBytes += length;
+        evict(now);
+        return id;
+    }
+
+    // writes fragment index of the given message into out - returns false if it is no longer retained (or the index is invalid)
+    synchronized boolean write(int id, int index, ByteBuffer out) {
+        Sent msg = find(id);
+        if (msg == null) return false;
+        return write(id, msg.data, msg.offset, msg.length, index, out);
+    }
+    // same, but for a message the caller still holds (whether or not it's retained) - used to send the first copy of each fragment
+    boolean write(int id, byte[] data, int offset, int length, int index, ByteBuffer out) {
+        int count = getFragmentCount(length);
+        if (index < 0 || index >= count) return false;
+        int start = index * chunkSize, len = Math.min(chunkSize, length - start);
+        out.putInt(id).putInt(length).putInt(start).putShort((short)index).putShort((short)count);
+        out.put(data, offset + start, len);
+        return true;
+    }
+    synchronized int getLength(int id) {
+        Sent msg = find(id);
+        return msg != null ? msg.length : -1;
+    }
+
+    private Sent find(int id) {
+        for (Sent msg : sent) if (msg.id == id) return msg;
+        return null;
+    }
+    private void evict(long now) {
+        for (Iterator<Sent> it = sent.iterator(); it.hasNext() && sent.size() > 1; ) { // always keep the newest so it can be repaired
+            Sent msg = it.next();
+            if (retainedBytes <= maxRetainedBytes && now - msg.time <= maxAge) break;
+            it.remove();
+            retainedBytes -= msg.length;
+        }
+    }
+}
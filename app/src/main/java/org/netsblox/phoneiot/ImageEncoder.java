@@ -0,0 +1,146 @@
+package org.netsblox.phoneiot;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+
+// encodes bitmaps to fit a byte budget, picking the format and quality rather than using one fixed setting:
+// flat graphics (few colors) try lossless first, then everything falls back to a bounded quality search (JPEG, or lossy WebP if there's transparency),
+// and if even the lowest quality is too big the image is scaled down and searched again.
+// scaled copies (always full color) come from (and go back to) the bitmap pool. not thread safe - the output buffer is reused, so results are only valid until the next encode.
+final class ImageEncoder {
+    static final int FORMAT_JPEG = 0;
+    static final int FORMAT_WEBP = 1;
+    static final int FORMAT_WEBP_LOSSLESS = 2;
+    static final int FORMAT_PNG = 3;
+    static final int FORMAT_COUNT = 4;
+    static final String[] FORMAT_NAMES = { "jpeg", "webp", "webp lossless", "png" };
+
+    private static final int MIN_QUALITY = 40;
+    private static final int MAX_QUALITY = 95;
+    private static final int MAX_PROBES = 5;       // quality search encodes per scale
+    private static final int MAX_SCALE_ROUNDS = 3;
+    private static final int FLAT_COLOR_LIMIT = 256;
+    private static final int COLOR_SAMPLE_SIZE = 64; // colors are counted on (at most) a 64x64 nearest neighbor sample
+    private static final int PIXELS_PER_BUDGET_BYTE = 8; // roughly the best a photo compresses at the min quality - anything bigger than this starts out scaled down
+
+    static final class Result {
+        byte[] data; // only valid until the next encode
+        int length;
+        int format;
+        int quality; // 100 for lossless
+        int width, height;
+        int attempts;
+        long encodeNanos;
+    }
+
+    // lets us read the encoded bytes without copying them out first
+    private static final class Output extends ByteArrayOutputStream {
+        byte[] buffer() { return buf; }
+    }
+
+    private final Output out = new Output();
+    private final int[] samples = new int[COLOR_SAMPLE_SIZE * COLOR_SAMPLE_SIZE];
+    private final int[] colorTable = new int[1024];
+    private final int[] lastProbed = new int[1];
+    private final Result result = new Result();
+    private final Rect dest = new Rect();
+    private final Paint filtered = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint unfiltered = new Paint();
+    private final BitmapPool pool;
+
+    ImageEncoder(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    // the result is over budget only if it couldn't be helped (after MAX_SCALE_ROUNDS of scaling down)
+    Result encode(Bitmap src, int budget) throws Exception {
+        long start = System.nanoTime();
+        result.attempts = 0;
+        boolean alpha = src.hasAlpha();
+        boolean flat = isFlat(src);
+
+        double scale = Math.min(1, Math.sqrt((double)budget * PIXELS_PER_BUDGET_BYTE / ((double)src.getWidth() * src.getHeight())));
+        Bitmap img = src;
+        try {
+            for (int round = 0; ; ++round) {
+                if (scale < 1) {
+                    if (img != src) pool.release(img);
+                    img = scaled(src, Math.max(1, (int)(src.getWidth() * scale)), Math.max(1, (int)(src.getHeight() * scale)), true);
+                }
+
+                if (flat) { // no quality loss, and usually tiny
+                    if (compress(img, FORMAT_PNG, 100) <= budget) return finish(img, FORMAT_PNG, 100, start);
+                    if (compress(img, FORMAT_WEBP_LOSSLESS, 100) <= budget) return finish(img, FORMAT_WEBP_LOSSLESS, 100, start);
+                }
+
+                final Bitmap target = img;
+                final int format = alpha ? FORMAT_WEBP : FORMAT_JPEG; // jpeg would lose the alpha channel
+                int quality = EncodingSearch.highestQualityWithin(q -> compress(target, format, q), budget, MIN_QUALITY, MAX_QUALITY, MAX_PROBES, lastProbed);
+                if (quality >= 0) {
+                    if (lastProbed[0] != quality) compress(img, format, quality);
+                    return finish(img, format, quality, start);
+                }
+                if (round + 1 >= MAX_SCALE_ROUNDS) return finish(img, format, lastProbed[0], start); // best effort - this is the smallest we made
+
+                scale *= EncodingSearch.scaleToFit(out.size(), budget);
+            }
+        }
+        finally {
+            if (img != src) pool.release(img);
+        }
+    }
+
+    private Result finish(Bitmap img, int format, int quality, long start) {
+        result.data = out.buffer();
+        result.length = out.size();
+        result.format = format;
+        result.quality = quality;
+        result.width = img.getWidth();
+        result.height = img.getHeight();
+        result.encodeNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    @SuppressWarnings("deprecation")
+    private int compress(Bitmap img, int format, int quality) {
+        out.reset();
+        ++result.attempts;
+        Bitmap.CompressFormat fmt;
+        switch (format) {
+            case FORMAT_WEBP:
+                fmt = Build.VERSION.SDK_INT >= 30 ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+                quality = Math.min(quality, 99); // the old WEBP format switches to lossless at 100
+                break;
+            case FORMAT_WEBP_LOSSLESS:
+                fmt = Build.VERSION.SDK_INT >= 30 ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+                quality = 100;
+                break;
+            case FORMAT_PNG: fmt = Bitmap.CompressFormat.PNG; break;
+            default: fmt = Bitmap.CompressFormat.JPEG; break;
+        }
+        img.compress(fmt, quality, out);
+        return out.size();
+    }
+
+    private boolean isFlat(Bitmap img) {
+        int w = img.getWidth(), h = img.getHeight();
+        Bitmap sample = w * h <= samples.length ? img : scaled(img, COLOR_SAMPLE_SIZE, COLOR_SAMPLE_SIZE, false); // no filtering, so no new colors
+        int sw = sample.getWidth(), sh = sample.getHeight();
+        sample.getPixels(samples, 0, sw, 0, 0, sw, sh);
+        if (sample != img) pool.release(sample);
+        return EncodingSearch.countColors(samples, sw * sh, FLAT_COLOR_LIMIT, colorTable) <= FLAT_COLOR_LIMIT;
+    }
+
+    private Bitmap scaled(Bitmap src, int width, int height, boolean filter) {
+        Bitmap res = pool.get(width, height, true); // always ARGB_8888 - RGB_565 would band gradients before the encoder even sees them
+        res.eraseColor(0);
+        dest.set(0, 0, width, height);
+        new Canvas(res).drawBitmap(src, null, dest, filter ? filtered : unfiltered);
+        return res;
+    }
+}
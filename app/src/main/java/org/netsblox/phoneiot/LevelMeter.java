@@ -0,0 +1,50 @@
+package org.netsblox.phoneiot;
+
+// computes sound levels from 16-bit pcm over fixed-size windows (no allocations) - this is a streaming calculation, so samples can be fed in any chunk size.
+// the results of each finished window are peak and rms (both normalized to [0, 1]) and rms in dBFS.
+final class LevelMeter {
+    static final double MIN_DECIBELS = -120; // reported for pure silence (where the real value would be -inf)
+    private static final double NORMALIZATION_FACTOR = 32768.0;
+
+    private int windowSamples;
+    private int count = 0;
+    private int peak = 0;
+    private double sumSquares = 0;
+
+    LevelMeter(int windowSamples) {
+        setWindowSamples(windowSamples);
+    }
+
+    int getWindowSamples() { return windowSamples; }
+    // changing the window size discards the current partial window
+    void setWindowSamples(int windowSamples) {
+        this.windowSamples = Math.max(1, windowSamples);
+        count = 0;
+        peak = 0;
+        sumSquares = 0;
+    }
+
+    // feeds samples in - returns true if at least one window finished, in which case out holds { peak, rms, dB } of the last finished window
+    boolean process(short[] pcm, int offset, int length, double[] out) {
+        boolean finished = false;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            int v = pcm[i];
+            int abs = v < 0 ? -v : v;
+            if (abs > peak) peak = abs;
+            sumSquares += (double)v * v;
+
+            if (++count == windowSamples) {
+                double rms = Math.sqrt(sumSquares / count) / NORMALIZATION_FACTOR;
+                out[0] = peak / NORMALIZATION_FACTOR;
+                out[1] = rms;
+                out[2] = rms > 0 ? Math.max(MIN_DECIBELS, 20 * Math.log10(rms)) : MIN_DECIBELS;
+                finished = true;
+
+                count = 0;
+                peak = 0;
+                sumSquares = 0;
+            }
+        }
+        return finished;
+    }
+}
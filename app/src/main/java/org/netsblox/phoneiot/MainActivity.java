@@ -8,11 +8,9 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.BlendMode;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PointF;
 import android.graphics.Rect;
@@ -20,28 +18,32 @@ import android.graphics.RectF;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.location.Location;
-import android.media.ExifInterface;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
 import android.media.MediaRecorder;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.text.StaticLayout;
 import android.text.TextPaint;
+import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.SoundEffectConstants;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
-import android.widget.ImageView;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -67,19 +69,16 @@ import com.google.android.gms.tasks.Task;
 import com.google.android.material.navigation.NavigationView;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -87,9 +86,13 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.regex.Pattern;
 
 public class MainActivity extends AppCompatActivity {
@@ -141,44 +144,125 @@ public class MainActivity extends AppCompatActivity {
 
     // ------------------------------------
 
+    // sensors are written by their own callbacks and read from any thread - reads always give a consistent (untorn) sample
     private interface BasicSensor {
         boolean isSupported();
-        double[] getData();
+        int getDimensions();
+        // copies the latest sample into dest (at least getDimensions() long) and returns its sequence number (increases with each new sample, 0 if none yet)
+        long read(double[] dest);
+        // event timestamp (ns) of the latest sample
+        long getTimestamp();
+        // sequence number of the latest sample (same as read() returns) without copying it
+        long getSequence();
     }
 
     // ------------------------------------
 
+    private static final int SENSOR_CAPTURE_CAPACITY = 2048; // samples of history kept for each capturing sensor (~10 seconds at the game rate)
+    private static final int BACKGROUND_MAX_REPORT_LATENCY_US = 1000000; // how long the sensor hub may hold on to events while we're in the background
+
     private class SensorInfo implements SensorEventListener, BasicSensor {
         public final Sensor sensor;
-        public final double[] data;
+        public final SensorSnapshot snapshot;
         public boolean supported;
         private final double scale;
+        private volatile SampleRing captureRing = null; // full history of samples (opt-in) - null if not capturing
+        private volatile SensorEventListener forward = null; // something computed from this sensor's raw events (e.g. orientation) - null if none
+        private boolean started = false; // guarded by this
+        private boolean batching = false; // guarded by this
+        private boolean flushing = false; // leaving batching - re-registered once the fifo has been delivered (see onFlushCompleted) - guarded by this
+        // what we actually register - SensorEventListener2 (for flush completion) doesn't exist before API 19, so there it's just this
+        private final SensorEventListener listener = Build.VERSION.SDK_INT >= 19 ? new FlushListener() : this;
+
+        private class FlushListener implements SensorEventListener2 {
+            @Override
+            public void onSensorChanged(SensorEvent event) { SensorInfo.this.onSensorChanged(event); }
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) { SensorInfo.this.onAccuracyChanged(sensor, accuracy); }
+            @Override
+            public void onFlushCompleted(Sensor sensor) { SensorInfo.this.onFlushCompleted(); }
+        }
 
         public SensorInfo(Sensor s, int dims, double scale) {
             sensor = s;
-            data = new double[dims];
-            supported = false;
+            snapshot = new SensorSnapshot(dims);
+            supported = s != null; // sensors are only registered on demand, so until then just go by whether the hardware exists
             this.scale = scale;
         }
         public SensorInfo(Sensor s, int dims) {
             this(s, dims, 1.0);
         }
 
-        public void start() {
-            if (sensor != null) supported = sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+        public synchronized void start() {
+            if (sensor == null) return;
+            int delay = captureRing != null || forward != null ? SensorManager.SENSOR_DELAY_GAME : SensorManager.SENSOR_DELAY_NORMAL; // capturing/filtering is pointless at the slow rate
+            if (batching && Build.VERSION.SDK_INT >= 19) supported = sensorManager.registerListener(listener, sensor, delay, BACKGROUND_MAX_REPORT_LATENCY_US, sensorHandler); // events are queued in the hardware fifo and delivered in bulk
+            else supported = sensorManager.registerListener(listener, sensor, delay, sensorHandler);
+            started = true;
+        }
+        public synchronized void stop() {
+            if (sensor != null) sensorManager.unregisterListener(listener, sensor);
+            started = false;
+            flushing = false;
+        }
+
+        // batching lets the sensor hub hold events (up to BACKGROUND_MAX_REPORT_LATENCY_US) so we aren't woken up for every single one.
+        // this is a no-op on devices without a sensor fifo or before API 19
+        public synchronized void setBatching(boolean batching) {
+            if (batching == this.batching) return;
+            // when leaving batching, get whatever is still in the fifo first - unregistering now would throw it away,
+            // so we stay registered (still batched) until the flush completes and switch over then
+            boolean flushed = started && !batching && Build.VERSION.SDK_INT >= 19 && sensorManager.flush(listener);
+            this.batching = batching;
+            if (flushed) flushing = true;
+            else if (started) {
+                stop();
+                start();
+            }
+        }
+        // asks the sensor hub to deliver everything it's holding right away (asynchronous)
+        public synchronized void flush() {
+            if (started && batching && Build.VERSION.SDK_INT >= 19) sensorManager.flush(listener);
+        }
+        // everything held before the flush has been delivered (on the sensor callback thread)
+        private synchronized void onFlushCompleted() {
+            if (!flushing) return;
+            flushing = false;
+            if (started) {
+                stop();
+                start();
+            }
+        }
+
+        public SampleRing getCaptureRing() { return captureRing; }
+        // starts/stops recording every sample into a history ring - if the sensor is running, it is re-registered at the appropriate rate
+        public synchronized void setCapturing(boolean capturing) {
+            if (capturing == (captureRing != null)) return;
+            captureRing = capturing ? new SampleRing(snapshot.getDimensions(), SENSOR_CAPTURE_CAPACITY) : null;
+            if (started) {
+                stop();
+                start();
+            }
         }
-        public void stop() {
-            if (sensor != null) sensorManager.unregisterListener(this, sensor);
+
+        // passes every raw event on to the given listener (on the sensor callback thread) - if the sensor is running, it is re-registered at the appropriate rate
+        public synchronized void setForward(SensorEventListener listener) {
+            if (listener == forward) return;
+            boolean rateChanged = (listener != null) != (forward != null);
+            forward = listener;
+            if (started && rateChanged) {
+                stop();
+                start();
+            }
         }
 
         @Override
         public void onSensorChanged(SensorEvent event) {
-            float[] newData = event.values;
-
-            // copy over what we were given - anything we didn't get we set to zero (some sensors have optional values)
-            int m = Math.min(data.length, newData.length);
-            for (int i = 0; i < m; ++i) data[i] = scale * newData[i];
-            for (int i = m; i < data.length; ++i) data[i] = 0;
+            snapshot.write(event.values, scale, event.timestamp); // anything we didn't get is set to zero (some sensors have optional values)
+            SampleRing ring = captureRing;
+            if (ring != null) ring.add(event.values, scale, event.timestamp);
+            SensorEventListener listener = forward;
+            if (listener != null) listener.onSensorChanged(event);
         }
         @Override
         public void onAccuracyChanged(Sensor sensor, int accuracy) {}
@@ -186,7 +270,13 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public boolean isSupported() { return supported; }
         @Override
-        public double[] getData() { return data; }
+        public int getDimensions() { return snapshot.getDimensions(); }
+        @Override
+        public long read(double[] dest) { return snapshot.read(dest); }
+        @Override
+        public long getTimestamp() { return snapshot.getTimestamp(); }
+        @Override
+        public long getSequence() { return snapshot.getSequence(); }
     }
 
     // ----------------------------------------------
@@ -221,6 +311,11 @@ public class MainActivity extends AppCompatActivity {
     // ----------------------------------------------
 
     private SensorManager sensorManager;
+    private SensorInfo[] hardwareSensors;
+
+    // sensor and location callbacks are delivered here rather than the ui thread, so drawing/touch handling and sensor updates can't hold each other up
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
 
     // motion sensors
     private SensorInfo accelerometer;
@@ -244,39 +339,55 @@ public class MainActivity extends AppCompatActivity {
 
     // ----------------------------------------------
 
-    // the hardware orientation sensor has been deprecated for a while, so we simulate it with the accelerometer and magnetometer
-    private static class OrientationCalculator implements BasicSensor {
-        public final double[] data = new double[3];
-
-        private final float[] R = new float[9];
-        private final float[] I = new float[9];
-        private final float[] accelBuffer = new float[3];
-        private final float[] magnetBuffer = new float[3];
+    // the hardware orientation sensor has been deprecated for a while, so we simulate it with the accelerometer and magnetometer (smoothed by the gyroscope if there is one).
+    // this is updated incrementally from the raw events of its inputs (see OrientationFilter), so reads are just a copy
+    private static class OrientationCalculator implements BasicSensor, SensorEventListener {
+        private final OrientationFilter filter = new OrientationFilter(); // only touched by the sensor callback thread
+        private final double[] angles = new double[3];                   // same
+        private final SensorSnapshot snapshot = new SensorSnapshot(3);
 
         private final SensorInfo accel;
         private final SensorInfo magnet;
+        private final SensorInfo gyro;
 
-        public OrientationCalculator(SensorInfo accelerometerSource, SensorInfo magnetometerSource) {
+        public OrientationCalculator(SensorInfo accelerometerSource, SensorInfo magnetometerSource, SensorInfo gyroscopeSource) {
             accel = accelerometerSource;
             magnet = magnetometerSource;
+            gyro = gyroscopeSource;
+        }
+
+        // starts/stops following the input events - the inputs themselves are started/stopped by sensor demand
+        public void setActive(boolean active) {
+            for (SensorInfo input : new SensorInfo[] { accel, magnet, gyro }) input.setForward(active ? this : null);
         }
 
         @Override
-        public boolean isSupported() { return accel.isSupported() && magnet.isSupported(); }
+        public void onSensorChanged(SensorEvent event) {
+            boolean changed;
+            if (event.sensor == accel.sensor) changed = filter.updateAccelerometer(event.values, event.timestamp);
+            else if (event.sensor == magnet.sensor) changed = filter.updateMagnetometer(event.values, event.timestamp);
+            else changed = filter.updateGyroscope(event.values, event.timestamp); // raw event values are rad/s
+
+            if (changed && filter.getOrientation(angles)) {
+                angles[0] *= RAD_TO_DEG;
+                angles[1] *= -RAD_TO_DEG;
+                angles[2] *= RAD_TO_DEG;
+                snapshot.write(angles, event.timestamp);
+            }
+        }
         @Override
-        public double[] getData() {
-            for (int i = 0; i < 3; ++i) accelBuffer[i] = (float)accel.data[i];
-            for (int i = 0; i < 3; ++i) magnetBuffer[i] = (float)magnet.data[i];
-
-            SensorManager.getRotationMatrix(R, I, accelBuffer, magnetBuffer);
-            SensorManager.getOrientation(R, accelBuffer); // store into this buffer temporarily
-
-            data[0] = RAD_TO_DEG * accelBuffer[0]; // an extract into real data array
-            data[1] = RAD_TO_DEG * -accelBuffer[1];
-            data[2] = RAD_TO_DEG * accelBuffer[2];
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
 
-            return data;
-        }
+        @Override
+        public boolean isSupported() { return accel.isSupported() && magnet.isSupported(); }
+        @Override
+        public int getDimensions() { return snapshot.getDimensions(); }
+        @Override
+        public long read(double[] dest) { return snapshot.read(dest); }
+        @Override
+        public long getTimestamp() { return snapshot.getTimestamp(); }
+        @Override
+        public long getSequence() { return snapshot.getSequence(); }
     }
 
     OrientationCalculator orientationCalculator;
@@ -284,20 +395,30 @@ public class MainActivity extends AppCompatActivity {
     // ----------------------------------------------
 
     private static class LocationSensor implements BasicSensor {
-        public final double[] data = new double[4];
-        public int updateCount = 0;
+        static final int PROFILE_HIGH_ACCURACY = 0;
+        static final int PROFILE_BALANCED = 1;
+        static final int PROFILE_LOW_POWER = 2;
+        static final int PROFILE_PASSIVE = 3; // only updates that other apps asked for
+        private static final int[] PROFILE_PRIORITIES = { LocationRequest.PRIORITY_HIGH_ACCURACY, LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, LocationRequest.PRIORITY_LOW_POWER, LocationRequest.PRIORITY_NO_POWER };
+        private static final long[] PROFILE_INTERVALS = { 4000, 10000, 30000, 60000 };     // ms between requested updates
+        private static final long[] PROFILE_FASTEST_INTERVALS = { 1000, 2000, 5000, 1000 }; // ms - we also accept updates from other sources, but at most this often
+        static final int MAX_BACKOFF = 16;
+        private static final long MAX_INTERVAL = 5 * 60 * 1000; // backoff never stretches updates beyond this
+
+        public final SensorSnapshot snapshot = new SensorSnapshot(4);
+        private final double[] scratch = new double[4]; // only touched by the location callback
         public boolean supported = false;
 
         private final FusedLocationProviderClient fusedLocationProviderClient;
         private final LocationRequest locationRequest;
         private final LocationCallback locationCallback;
+        private final Looper callbackLooper;
 
-        public LocationSensor(Context context) {
+        public LocationSensor(Context context, Looper callbackLooper) {
+            this.callbackLooper = callbackLooper;
             fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(context);
             locationRequest = LocationRequest.create();
-            locationRequest.setInterval(4000); // we request an update every 4 seconds
-            locationRequest.setFastestInterval(1000); // we also accept updates from other sources, but at most once per second (could be very fast)
-            locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+            configureRequest();
 
             LocationSettingsRequest request = new LocationSettingsRequest.Builder().addLocationRequest(locationRequest).build();
             SettingsClient client = LocationServices.getSettingsClient(context);
@@ -306,12 +427,13 @@ public class MainActivity extends AppCompatActivity {
                 public void onLocationResult(LocationResult locationResult) {
                     if (locationResult != null) {
                         Location loc = locationResult.getLastLocation();
-                        data[0] = loc.getLatitude();
-                        data[1] = loc.getLongitude();
-                        data[2] = loc.getBearing();
-                        data[3] = loc.getAltitude();
+                        scratch[0] = loc.getLatitude();
+                        scratch[1] = loc.getLongitude();
+                        scratch[2] = loc.getBearing();
+                        scratch[3] = loc.getAltitude();
 
-                        updateCount += 1;
+                        long timestamp = Build.VERSION.SDK_INT >= 17 ? loc.getElapsedRealtimeNanos() : SystemClock.elapsedRealtime() * 1000000;
+                        snapshot.write(scratch, timestamp);
                     }
                 }
             };
@@ -322,95 +444,295 @@ public class MainActivity extends AppCompatActivity {
                 supported = coarse || fine;
             });
         }
-        public void start() {
-            try { fusedLocationProviderClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper()); }
-            catch (SecurityException ignored) {}
+        private int profile = PROFILE_HIGH_ACCURACY; // guarded by this
+        private int backoff = 1;                     // guarded by this
+        private boolean started = false;             // guarded by this
+
+        public synchronized void start() {
+            started = true;
+            requestUpdates();
         }
-        public void stop() {
+        public synchronized void stop() {
+            started = false;
             fusedLocationProviderClient.removeLocationUpdates(locationCallback);
         }
 
+        public synchronized void setProfile(int profile) {
+            if (profile == this.profile) return;
+            this.profile = profile;
+            if (started) requestUpdates();
+        }
+        // stretches the update intervals by the given factor (e.g. while the device is stationary)
+        public synchronized void setBackoff(int factor) {
+            factor = Math.max(1, Math.min(MAX_BACKOFF, factor));
+            if (factor == backoff) return;
+            backoff = factor;
+            if (started) requestUpdates();
+        }
+
+        private void configureRequest() {
+            long interval = Math.min(MAX_INTERVAL, Math.max(PROFILE_INTERVALS[profile], PROFILE_INTERVALS[profile] * backoff));
+            locationRequest.setInterval(interval);
+            locationRequest.setFastestInterval(Math.min(interval, PROFILE_FASTEST_INTERVALS[profile] * backoff));
+            locationRequest.setPriority(PROFILE_PRIORITIES[profile]);
+        }
+        private void requestUpdates() {
+            configureRequest();
+            try { fusedLocationProviderClient.requestLocationUpdates(locationRequest, locationCallback, callbackLooper); } // replaces any previous request for this callback
+            catch (SecurityException ignored) {}
+        }
+
         @Override
         public boolean isSupported() { return supported; }
         @Override
-        public double[] getData() { return data; }
+        public int getDimensions() { return snapshot.getDimensions(); }
+        @Override
+        public long read(double[] dest) { return snapshot.read(dest); }
+        @Override
+        public long getTimestamp() { return snapshot.getTimestamp(); }
+        @Override
+        public long getSequence() { return snapshot.getSequence(); }
     }
     private LocationSensor location;
 
+    // while location is running, we watch the (cheap) motion sensors and stretch out location updates if the device is sitting still
+    private static final long LOCATION_BACKOFF_CHECK_INTERVAL = 1000; // ms
+    private static final double STATIONARY_THRESHOLD = 0.5; // m/s^2 deviation from the mean acceleration that counts as motion
+    private static final long STATIONARY_TIME = 30000; // ms without motion before location updates start backing off (and between each further doubling)
+    private volatile boolean locationAdaptive = true;
+    private final StationaryDetector stationaryDetector = new StationaryDetector(STATIONARY_THRESHOLD, STATIONARY_TIME, 0); // only touched by sensorThread
+    private final double[] locationMotionScratch = new double[4]; // same
+    private long lastAccelerometerSequence = 0, lastStepSequence = 0; // same
+
+    private final Runnable locationBackoffRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            double[] v = locationMotionScratch;
+            long seq = accelerometer.read(v);
+            if (seq != lastAccelerometerSequence) {
+                lastAccelerometerSequence = seq;
+                stationaryDetector.addAcceleration(Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]), now);
+            }
+            seq = stepCounter.read(v);
+            if (seq != lastStepSequence) {
+                if (lastStepSequence != 0) stationaryDetector.addMotion(now); // the first event is just the current count
+                lastStepSequence = seq;
+            }
+
+            location.setBackoff(locationAdaptive ? stationaryDetector.getBackoff(now, LocationSensor.MAX_BACKOFF) : 1);
+            sensorHandler.postDelayed(this, LOCATION_BACKOFF_CHECK_INTERVAL);
+        }
+    };
+    private final Runnable resetLocationBackoffRunnable = () -> {
+        stationaryDetector.reset(SystemClock.elapsedRealtime());
+        lastAccelerometerSequence = lastStepSequence = 0;
+    };
+    private final Object locationMotionLock = new Object();
+    private boolean locationBackoffRunning = false, locationMotionAcquired = false; // guarded by locationMotionLock
+
+    // the motion sensors are only held while location is running in adaptive mode - otherwise nothing looks at them
+    private void updateLocationMotionSensors() {
+        synchronized (locationMotionLock) {
+            boolean want = locationBackoffRunning && locationAdaptive;
+            if (want == locationMotionAcquired) return;
+            locationMotionAcquired = want;
+            List<BasicSensor> streamOrder = Arrays.asList(streamSensors);
+            int accelerometerIndex = streamOrder.indexOf(accelerometer), stepCounterIndex = streamOrder.indexOf(stepCounter);
+            if (want) {
+                acquireSensor(accelerometerIndex);
+                acquireSensor(stepCounterIndex);
+                sensorHandler.post(resetLocationBackoffRunnable); // whatever they saw before is stale
+            }
+            else {
+                releaseSensor(accelerometerIndex);
+                releaseSensor(stepCounterIndex);
+            }
+        }
+    }
+    private void startLocationBackoff() {
+        synchronized (locationMotionLock) { locationBackoffRunning = true; }
+        updateLocationMotionSensors();
+        sensorHandler.post(locationBackoffRunnable);
+    }
+    private void stopLocationBackoff() {
+        synchronized (locationMotionLock) { locationBackoffRunning = false; }
+        updateLocationMotionSensors();
+        sensorHandler.removeCallbacks(locationBackoffRunnable);
+    }
+
     // ----------------------------------------------
 
+    // microphone levels from raw pcm - capture and level calculation run on a dedicated thread with preallocated buffers (no encoding, no file output).
+    // the value is the peak normalized to [0, 1] (same as it always was) - the full { peak, rms, dB } is available through getLevels()
     private static class SoundSensor implements BasicSensor {
-        private final double[] data = new double[1];
-        private boolean supported = false;
+        private final SensorSnapshot snapshot = new SensorSnapshot(1);
+        private final SensorSnapshot levelsSnapshot = new SensorSnapshot(3);
+        private volatile boolean supported = false;
+
+        private static final int SAMPLE_RATE = 44100; // Hz - the only rate guaranteed to work on all devices
+        private static final int READ_SAMPLES = 512;  // samples per read (~12 ms)
+        static final int DEFAULT_WINDOW_MS = 250;
+        static final int MIN_WINDOW_MS = 10;
+        static final int MAX_WINDOW_MS = 2000;
+
+        private volatile int windowMs = DEFAULT_WINDOW_MS;
+        private volatile PcmListener pcmListener = null;
+        private volatile Thread thread = null; // the current capture thread - one that's been replaced (or stopped) exits on its own
+        private Thread lastThread = null;      // guarded by this
+
+        public synchronized void start() {
+            if (thread != null) return;
+            Thread previous = lastThread;
+            thread = lastThread = new Thread(() -> capture(previous), "SoundSensor");
+            thread.start();
+        }
+        // doesn't wait for the capture thread (this is called from the ui thread) - a restart waits for the mic to be released instead
+        public synchronized void stop() {
+            thread = null;
+        }
 
-        private static final long SAMPLE_RATE = 250; // ms
-        private static final float NORMALIZATION_FACTOR = 32768.0f;
+        // { peak, rms, dB }, where peak and rms are normalized to [0, 1] and dB is rms relative to full scale - a separate sensor so 'm' and 'Q' keep their single value
+        private final BasicSensor levels = new BasicSensor() {
+            @Override
+            public boolean isSupported() { return supported; }
+            @Override
+            public int getDimensions() { return levelsSnapshot.getDimensions(); }
+            @Override
+            public long read(double[] dest) { return levelsSnapshot.read(dest); }
+            @Override
+            public long getTimestamp() { return levelsSnapshot.getTimestamp(); }
+            @Override
+            public long getSequence() { return levelsSnapshot.getSequence(); }
+        };
+        public BasicSensor getLevels() { return levels; }
 
-        private final MediaRecorder recorder = new MediaRecorder();
-        private final Handler handler = new Handler();
+        // the window size sets the output rate - the default is the same as the old 4 Hz polling, and short windows give a high-rate level meter
+        public void setWindowMs(int ms) {
+            windowMs = Math.max(MIN_WINDOW_MS, Math.min(MAX_WINDOW_MS, ms));
+        }
+        // gives the raw pcm to something else (only while capturing) - called on the capture thread, so it needs to be fast
+        public void setPcmListener(PcmListener listener) {
+            pcmListener = listener;
+        }
 
-        private Context cachedContext = null;
+        private void capture(Thread previous) {
+            if (previous != null) {
+                try { previous.join(); } // a quick restart would otherwise fail to open the mic
+                catch (InterruptedException ex) { return; }
+            }
+            Thread self = Thread.currentThread();
+            if (thread != self) return; // already stopped again
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
 
-        public SoundSensor() {
-            new Runnable() {
-                @Override
-                public void run() {
-                    if (supported) {
-                        try { data[0] = (float)recorder.getMaxAmplitude() / NORMALIZATION_FACTOR; }
-                        catch (IllegalStateException ex) {
-                            System.err.printf("sound sensor illegal state: %s\nattempting sound sensor restart\n", ex);
-                            supported = false; // mark as not supported until we successfully restart
-                            start(cachedContext);
-                        }
-                        catch (Exception ignore) { }
-                    }
-                    handler.postDelayed(this, SAMPLE_RATE);
-                }
-            }.run();
-        }
-        public void start(Context context) {
-            cachedContext = context;
+            AudioRecord recorder = null;
             try {
-                recorder.reset();
-                recorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-                recorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
-                recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
-
-                // time for a little rant...
-                // Android 11 added more restrictions on file access among apps, relegating them to their own little sandboxes
-                // that's all well and good, but now /dev/null is inaccessible, and they didn't think to add any alternative...
-                // so we actually have to SAVE all this garbage to a temporary file and just delete it on exit...
-
-                File res = File.createTempFile("_media_recorder_dump_", null, context.getFilesDir());
-                res.deleteOnExit(); // for some reason createTempFile doesn't do this automatically... what's even the point? who knows...
-                System.err.printf("generated media file: %s\n", res);
-
-                recorder.setOutputFile(res.getAbsolutePath());
-                recorder.prepare();
-                recorder.start();
+                int minSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+                recorder = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, Math.max(minSize, 4 * READ_SAMPLES * 2));
+                if (recorder.getState() != AudioRecord.STATE_INITIALIZED) throw new IllegalStateException("failed to initialize AudioRecord");
+                recorder.startRecording();
                 supported = true;
                 System.err.println("microphone started");
+
+                short[] pcm = new short[READ_SAMPLES];
+                double[] levels = new double[3];
+                double[] peak = new double[1];
+                int window = windowMs;
+                LevelMeter meter = new LevelMeter(window * SAMPLE_RATE / 1000);
+                while (thread == self) {
+                    int n = recorder.read(pcm, 0, pcm.length);
+                    if (n < 0) throw new IllegalStateException("AudioRecord read error " + n);
+
+                    if (window != windowMs) meter.setWindowSamples((window = windowMs) * SAMPLE_RATE / 1000);
+                    if (meter.process(pcm, 0, n, levels)) {
+                        long timestamp = SystemClock.elapsedRealtime() * 1000000;
+                        peak[0] = levels[0];
+                        snapshot.write(peak, timestamp);
+                        levelsSnapshot.write(levels, timestamp);
+                    }
+
+                    PcmListener listener = pcmListener;
+                    if (listener != null) listener.onPcm(pcm, n);
+                }
             }
             catch (Exception ex) {
                 supported = false;
-                ex.printStackTrace();
+                System.err.printf("sound sensor failure: %s\n", ex);
             }
-        }
-        public void stop() {
-            if (supported) {
-                try { recorder.stop(); }
-                catch (Exception ignored) { }
+            finally {
+                if (recorder != null) {
+                    try { recorder.stop(); }
+                    catch (Exception ignored) { }
+                    recorder.release();
+                }
             }
         }
 
         @Override
         public boolean isSupported() { return supported; }
         @Override
-        public double[] getData() { return data; }
+        public int getDimensions() { return snapshot.getDimensions(); }
+        @Override
+        public long read(double[] dest) { return snapshot.read(dest); }
+        @Override
+        public long getTimestamp() { return snapshot.getTimestamp(); }
+        @Override
+        public long getSequence() { return snapshot.getSequence(); }
     }
 
     private SoundSensor soundSensor;
 
+    private interface PcmListener {
+        void onPcm(short[] pcm, int length);
+    }
+
+    // frequency content of the microphone - values are { dominant frequency (Hz), band 0 energy, band 1 energy, ... } (see SpectrumAnalyzer).
+    // this has no capture of its own - it is fed pcm by the sound sensor while active
+    private static class SpectrumSensor implements BasicSensor, PcmListener {
+        private static final int FFT_SIZE = 1024; // ~23 ms windows, ~43 Hz bins
+        static final int DEFAULT_BANDS = 8;
+        static final int MAX_BANDS = 32;
+        static final double DEFAULT_MIN_FREQUENCY = 50; // Hz
+
+        private final SoundSensor source;
+        private SpectrumAnalyzer analyzer; // guarded by this
+        private double[] results;          // guarded by this
+        private volatile SensorSnapshot snapshot; // replaced when the number of bands changes
+
+        public SpectrumSensor(SoundSensor source) {
+            this.source = source;
+            configure(DEFAULT_BANDS, DEFAULT_MIN_FREQUENCY);
+        }
+
+        // throws IllegalArgumentException if the bands don't fit in the fft (too many bands for too low a min frequency)
+        public synchronized void configure(int bands, double minFrequency) {
+            analyzer = new SpectrumAnalyzer(FFT_SIZE, SoundSensor.SAMPLE_RATE, bands, minFrequency);
+            results = new double[analyzer.getOutputSize()];
+            snapshot = new SensorSnapshot(results.length);
+        }
+
+        @Override
+        public synchronized void onPcm(short[] pcm, int length) {
+            if (analyzer.process(pcm, 0, length, results)) snapshot.write(results, SystemClock.elapsedRealtime() * 1000000);
+        }
+
+        @Override
+        public boolean isSupported() { return source.isSupported(); }
+        @Override
+        public int getDimensions() { return snapshot.getDimensions(); }
+        @Override
+        public long read(double[] dest) {
+            SensorSnapshot s = snapshot;
+            if (dest.length < s.getDimensions()) return 0; // only possible if we were reconfigured mid-read - the caller picks up the new size next time
+            return s.read(dest);
+        }
+        @Override
+        public long getTimestamp() { return snapshot.getTimestamp(); }
+        @Override
+        public long getSequence() { return snapshot.getSequence(); }
+    }
+    private SpectrumSensor spectrumSensor;
+
     // ----------------------------------------------
 
     private View getNavigationView(int id) {
@@ -456,10 +778,6 @@ public class MainActivity extends AppCompatActivity {
         for (int i = 0; i < length; ++i) res = (res << 8) | ((long)v[start + i] & 0xff);
         return res;
     }
-    private static int intFromBEBytes(byte[] v, int start) {
-        return (int)fromBEBytes(v, start, 4);
-    }
-    private static float floatFromBEBytes(byte[] v, int start) { return Float.intBitsToFloat(intFromBEBytes(v, start)); }
 
     // ----------------------------------------------
 
@@ -486,6 +804,22 @@ public class MainActivity extends AppCompatActivity {
         return new RectF(rect.left - padding, rect.top - padding, rect.right + padding, rect.bottom + padding);
     }
 
+    // maps a rect in a control's local coordinates (after the translate/rotate at the start of its draw()) to panel coordinates
+    private static void localToPanel(RectF out, float posx, float posy, boolean landscape, float left, float top, float right, float bottom) {
+        if (landscape) out.set(posx - bottom, posy + left, posx - top, posy + right);
+        else out.set(posx + left, posy + top, posx + right, posy + bottom);
+    }
+    private static float maxLineWidth(Paint paint, String text) {
+        float res = 0;
+        for (String line : text.split("\n")) res = Math.max(res, paint.measureText(line));
+        return res;
+    }
+    private static int lineCount(String text) {
+        int res = 1;
+        for (int i = 0; i < text.length(); ++i) if (text.charAt(i) == '\n') ++res;
+        return res;
+    }
+
     private static int applyAlpha(int color, float alpha) {
         return (color & 0x00ffffff) | (Math.round(((color >> 24) & 0xff) * alpha) << 24);
     }
@@ -505,6 +839,7 @@ public class MainActivity extends AppCompatActivity {
     private interface ICustomControl {
         byte[] getID();
         void draw(Canvas canvas, Paint paint, float baseFontSize);
+        void getBounds(RectF out, Paint paint, float baseFontSize); // conservative panel area touched by draw() - paint may be used for measuring
         boolean containsPoint(int x, int y);
         void handleMouseDown(View view, MainActivity context, int x, int y);
         void handleMouseMove(View view, MainActivity context, int x, int y);
@@ -525,8 +860,18 @@ public class MainActivity extends AppCompatActivity {
         void setLevel(float value);
     }
     private interface IImageLike extends ICustomControl {
-        Bitmap getImage();
+        Bitmap pinImage(); // the current image, which won't be recycled or evicted until unpinImage() - for reading it off the ui thread
+        void unpinImage();
+        long getGeneration(); // changes every time the image does
+        int getDisplayWidth(); // size the image is shown at (pixels) - images are decoded no bigger than they need to be for this
+        int getDisplayHeight();
+        boolean coversDisplay(); // true if the image is scaled to cover the whole display area (cropped or stretched) rather than fit inside it
         void setImage(Bitmap newimg, boolean recycleOld);
+        void releaseImage(); // gives the image back to the bitmap pool - for when the control is removed
+
+        long getLastUsed(); // when the image was last drawn or read (nanoTime)
+        boolean isOnScreen(); // false if it's outside the panel or completely covered (or we're in the background)
+        long evict(); // swaps the image out for its compressed bytes (see BitmapPool) and returns the bitmap bytes freed - zero if it can't be evicted right now. slow - call from imageThread
     }
     private interface ITextLike extends ICustomControl {
         String getText();
@@ -563,6 +908,11 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public byte[] getID() { return id; }
+        @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            localToPanel(out, posx, posy, landscape, 0, 0, width, height);
+            out.inset(-BOUNDS_PADDING, -BOUNDS_PADDING);
+        }
         private void drawRegion(Canvas canvas, Paint paint, RectF rect) {
             if (style == ButtonStyle.Rect) canvas.drawRect(rect, paint);
             else canvas.drawArc(rect, 0, 360, false, paint);
@@ -624,7 +974,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setText(String text) {
             this.text = text;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
     }
     private class CustomJoystick implements ICustomControl, IPositionLike, IPushable {
@@ -654,6 +1004,11 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            float pad = STICK_SIZE * width / 2 + Math.max(4f, 0.035f * width) + BOUNDS_PADDING; // stick can hang over the edge
+            out.set(posx - pad, posy - pad, posx + width + pad, posy + width + pad);
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             paint.setColor(color);
             paint.setStyle(Paint.Style.STROKE);
@@ -751,6 +1106,11 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            localToPanel(out, posx, posy, landscape, 0, 0, width, height);
+            out.inset(-(CURSOR_SIZE / 2 + STROKE_WIDTH + BOUNDS_PADDING), -(CURSOR_SIZE / 2 + STROKE_WIDTH + BOUNDS_PADDING)); // cursor can hang over the edge
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -868,6 +1228,11 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            float pad = Math.max(BAR_HEIGHT / 2, SLIDER_RADIUS) + STROKE_WIDTH + BOUNDS_PADDING;
+            localToPanel(out, posx, posy, landscape, -pad, BAR_HEIGHT / 2 - pad, width + pad, BAR_HEIGHT / 2 + pad);
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -959,7 +1324,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setLevel(float level) {
             this.level = level;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
         @Override
         public boolean isPushed() {
@@ -996,7 +1361,15 @@ public class MainActivity extends AppCompatActivity {
     private class CustomImageBox implements ICustomControl, IImageLike {
         private int posx, posy, width, height;
         private final byte[] id;
-        private Bitmap img;
+        private Bitmap img;             // null while evicted - guarded by imgLock
+        private byte[] evicted = null;  // compressed content while img is null - guarded by imgLock
+        private boolean evictedAlpha;   // guarded by imgLock
+        private int evictedWidth, evictedHeight; // guarded by imgLock
+        private long generation = 0;    // guarded by imgLock
+        private long lastUsed = System.nanoTime(); // guarded by imgLock
+        private int pins = 0;           // guarded by imgLock
+        private boolean restoring = false; // a restore is posted to imageThread - guarded by imgLock
+        private final List<Bitmap> retired = new ArrayList<>(); // replaced while pinned - released on the last unpin - guarded by imgLock
         private final Object imgLock = new Object();
         private boolean readonly;
         private boolean landscape;
@@ -1017,6 +1390,11 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            localToPanel(out, posx, posy, landscape, 0, 0, width, height);
+            out.inset(-BOUNDS_PADDING, -BOUNDS_PADDING);
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -1032,9 +1410,16 @@ public class MainActivity extends AppCompatActivity {
                 canvas.clipRect(mainRect);
 
                 synchronized (imgLock) {
-                    Rect src = new Rect(0, 0, img.getWidth(), img.getHeight());
-                    RectF dest = fitRect(img, mainRect, fit);
-                    canvas.drawBitmap(img, src, dest, paint);
+                    lastUsed = System.nanoTime();
+                    if (img != null) {
+                        Rect src = new Rect(0, 0, img.getWidth(), img.getHeight());
+                        RectF dest = fitRect(img, mainRect, fit);
+                        canvas.drawBitmap(img, src, dest, paint);
+                    }
+                    else if (!restoring && isOnScreen()) { // evicted - leave it blank until it's been decoded off the ui thread (covered boxes stay evicted)
+                        restoring = true;
+                        imageHandler.post(restoreRunnable);
+                    }
                 }
 
                 canvas.restore();
@@ -1064,20 +1449,134 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void handleMouseUp(View view, MainActivity context) { }
 
+        // the image, restored from its compressed bytes if it was evicted (and pinned if requested).
+        // imgLock must NOT be held - the decode happens without it, and the result is only swapped in if nothing changed in the meantime
+        private Bitmap resident(boolean pin) {
+            for (;;) {
+                byte[] data;
+                int width, height;
+                boolean alpha;
+                synchronized (imgLock) {
+                    lastUsed = System.nanoTime();
+                    if (img != null) {
+                        if (pin) ++pins;
+                        return img;
+                    }
+                    if (evicted == null && !pin) return null; // released (removed) - nothing to restore for drawing
+                    data = evicted;
+                    width = evictedWidth;
+                    height = evictedHeight;
+                    alpha = evictedAlpha;
+                }
+
+                Bitmap res;
+                try { res = bitmapPool.restore(data, width, height, alpha); }
+                catch (Exception ex) {
+                    System.err.printf("failed to restore evicted image: %s\n", ex);
+                    res = getDefaultImage();
+                }
+
+                synchronized (imgLock) {
+                    if (img == null && evicted == data) {
+                        img = res;
+                        evicted = null;
+                        if (pin) ++pins;
+                        return img;
+                    }
+                }
+                bitmapPool.release(res); // replaced or restored by someone else while we were decoding - go again
+            }
+        }
+        private final Runnable restoreRunnable = () -> {
+            resident(false);
+            synchronized (imgLock) { restoring = false; }
+            invalidateCustomControl(this);
+        };
+        // recycles or pools the old image, unless someone is still reading it - imgLock must be held
+        private void retire(Bitmap old) {
+            if (old == null) return;
+            if (pins > 0) retired.add(old);
+            else bitmapPool.release(old);
+        }
+
+        @Override
+        public Bitmap pinImage() {
+            return resident(true);
+        }
+        @Override
+        public void unpinImage() {
+            synchronized (imgLock) { unpinLocked(); }
+        }
+        private void unpinLocked() {
+            if (--pins > 0) return;
+            for (Bitmap old : retired) bitmapPool.release(old);
+            retired.clear();
+        }
+        @Override
+        public long getLastUsed() {
+            synchronized (imgLock) {
+                return lastUsed;
+            }
+        }
+        @Override
+        public boolean isOnScreen() {
+            return panelVisible && controlPanel.isControlVisible(this);
+        }
+        @Override
+        public long evict() {
+            Bitmap src;
+            synchronized (imgLock) {
+                if (img == null || pins > 0) return 0;
+                src = img;
+                ++pins; // compressed without the lock - this keeps a concurrent setImage from releasing it under us
+            }
+
+            byte[] data = bitmapPool.compress(src);
+
+            synchronized (imgLock) {
+                unpinLocked();
+                if (img != src || pins > 0) return 0; // replaced or being read in the meantime - not worth it
+                evicted = data;
+                evictedAlpha = src.hasAlpha();
+                evictedWidth = src.getWidth();
+                evictedHeight = src.getHeight();
+                img = null;
+            }
+            long freed = src.getByteCount();
+            bitmapPool.release(src);
+            return freed; // the content (and generation) didn't change, so cached encodings are still good
+        }
         @Override
-        public Bitmap getImage() {
+        public void releaseImage() {
             synchronized (imgLock) {
-                return img;
+                retire(img);
+                img = null;
+                evicted = null;
+            }
+        }
+        @Override
+        public int getDisplayWidth() { return width; }
+        @Override
+        public int getDisplayHeight() { return height; }
+        @Override
+        public boolean coversDisplay() { return fit != FitType.Fit; }
+        @Override
+        public long getGeneration() {
+            synchronized (imgLock) {
+                return generation;
             }
         }
         @Override
         public void setImage(Bitmap newimg, boolean recycleOld) {
             synchronized (imgLock) {
                 if (newimg == img) return;
-                if (recycleOld) img.recycle();
+                if (recycleOld) retire(img);
                 img = newimg;
+                evicted = null;
+                lastUsed = System.nanoTime();
+                ++generation;
             }
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
     }
     private class CustomTextField implements ICustomControl, ITextLike {
@@ -1110,6 +1609,15 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            localToPanel(out, posx, posy, landscape, 0, 0, width, height);
+            if (Build.VERSION.SDK_INT < 23) { // old devices draw the text unclipped
+                paint.setTextSize(baseFontSize * fontSize);
+                out.union(posx, posy - paint.getTextSize(), posx + maxLineWidth(paint, text), posy + paint.getTextSize());
+            }
+            out.inset(-BOUNDS_PADDING, -BOUNDS_PADDING);
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -1165,7 +1673,7 @@ public class MainActivity extends AppCompatActivity {
 
                 prompt.setPositiveButton("Ok", (d,w) -> {
                     text = field.getText().toString();
-                    redrawCustomControls(false);
+                    invalidateCustomControl(this);
 
                     // send update notification to server
                     try {
@@ -1190,7 +1698,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setText(String text) {
             this.text = text;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
     }
     private class CustomLabel implements ICustomControl, ITextLike {
@@ -1216,6 +1724,16 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            paint.setTextSize(baseFontSize * fontSize);
+            float w = maxLineWidth(paint, text);
+            float h = lineCount(text) * paint.getFontSpacing();
+            float left = align == Paint.Align.LEFT ? 0 : -w; // centered/right aligned text extends back past the anchor
+            float right = align == Paint.Align.RIGHT ? 0 : w;
+            localToPanel(out, posx, posy, landscape, left, -paint.getTextSize(), right, h + paint.getTextSize());
+            out.inset(-BOUNDS_PADDING, -BOUNDS_PADDING);
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -1253,7 +1771,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setText(String text) {
             this.text = text;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
     }
 
@@ -1350,6 +1868,16 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            float size = baseFontSize * fontSize;
+            float w = size * (style == CheckboxStyle.ToggleSwitch ? TOGGLESWITCH_WIDTH : CHECKBOX_SIZE);
+            float h = size * (style == CheckboxStyle.ToggleSwitch ? TOGGLESWITCH_HEIGHT : CHECKBOX_SIZE);
+            paint.setTextSize(size);
+            float right = w + TEXT_PADDING + paint.measureText(text);
+            localToPanel(out, posx, posy, landscape, 0, -size / 2, right, Math.max(h, size) + size / 2); // the check mark overhangs the top of the box
+            out.inset(-(STROKE_WIDTH + BOUNDS_PADDING), -(STROKE_WIDTH + BOUNDS_PADDING));
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -1396,7 +1924,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setToggleState(boolean val) {
             checked = val;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
 
         @Override
@@ -1404,7 +1932,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setText(String text) {
             this.text = text;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
     }
     private class CustomRadioButton implements ICustomControl, IToggleable, ITextLike {
@@ -1447,6 +1975,15 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public byte[] getID() { return id; }
         @Override
+        public void getBounds(RectF out, Paint paint, float baseFontSize) {
+            float size = baseFontSize * fontSize;
+            float w = size * RADIO_SIZE;
+            paint.setTextSize(size);
+            float right = w + TEXT_PADDING + paint.measureText(text);
+            localToPanel(out, posx, posy, landscape, 0, 0, right, Math.max(w, size) + size / 2);
+            out.inset(-(STROKE_WIDTH + BOUNDS_PADDING), -(STROKE_WIDTH + BOUNDS_PADDING));
+        }
+        @Override
         public void draw(Canvas canvas, Paint paint, float baseFontSize) {
             canvas.save();
             canvas.translate(posx, posy);
@@ -1487,10 +2024,13 @@ public class MainActivity extends AppCompatActivity {
             if (!readonly) {
                 // set state to true and uncheck every other radiobutton in the same group
                 checked = true;
-                for (ICustomControl other : context.customControls) {
+                for (IToggleable other : context.customControlIndex.getToggleables()) {
                     if (other != this && other instanceof CustomRadioButton) {
                         CustomRadioButton b = (CustomRadioButton) other;
-                        if (Arrays.equals(b.group, this.group)) b.checked = false;
+                        if (b.checked && Arrays.equals(b.group, this.group)) {
+                            b.checked = false;
+                            invalidateCustomControl(b);
+                        }
                     }
                 }
 
@@ -1510,7 +2050,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setToggleState(boolean val) {
             checked = val;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
 
         @Override
@@ -1518,57 +2058,228 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void setText(String text) {
             this.text = text;
-            redrawCustomControls(false);
+            invalidateCustomControl(this);
         }
     }
 
     private static final int MAX_CUSTOM_CONTROLS = 128;
 
-    private boolean controlPanelInitialized = false;
-    private final List<ICustomControl> customControls = new ArrayList<>();
-    private boolean redrawCustomControls(boolean optional) {
-        if (optional && controlPanelInitialized) return true;
-        ImageView view = findViewById(R.id.controlPanel);
-        int width = view.getWidth();
-        int height = view.getHeight();
-        if (width <= 0 || height <= 0) return false;
-
-        Bitmap img = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(img);
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        float baseFontSize = 30 * ((float)height / 1200);
-        paint.setTextSize(baseFontSize);
-
-        if (customControls.isEmpty()) { // if there aren't any controls, put a message to let them know it's intentionally empty
-            String msg = "Add controls through NetsBlox!";
-            float len = paint.measureText(msg);
-            canvas.drawText(msg, (width - len) / 2f, height / 2f, paint);
-        }
-        for (ICustomControl control : customControls) {
-            control.draw(canvas, paint, baseFontSize);
-        }
-
-        view.setImageBitmap(img);
-        controlPanelInitialized = true;
-        return true;
+    // id lookups for custom controls - maintained alongside the (draw ordered) control list in ControlPanelView.
+    // lookups take a slice of some buffer (e.g. a received packet), so we never need to copy the id out first.
+    private static class CustomControlIndex {
+        private final HashMap<ControlId, ICustomControl> all = new HashMap<>();
+        private final HashMap<ControlId, IImageLike> images = new HashMap<>();
+        private final HashMap<ControlId, ITextLike> texts = new HashMap<>();
+        private final HashMap<ControlId, IToggleable> toggleables = new HashMap<>();
+        private final ControlId probe = ControlId.probe(); // guarded by this
+
+        synchronized void add(ICustomControl control) {
+            ControlId key = ControlId.of(control.getID());
+            all.put(key, control);
+            if (control instanceof IImageLike) images.put(key, (IImageLike)control);
+            if (control instanceof ITextLike) texts.put(key, (ITextLike)control);
+            if (control instanceof IToggleable) toggleables.put(key, (IToggleable)control);
+        }
+        synchronized ICustomControl remove(byte[] buf, int offset, int length) {
+            probe.set(buf, offset, length);
+            images.remove(probe);
+            texts.remove(probe);
+            toggleables.remove(probe);
+            return all.remove(probe);
+        }
+        synchronized void clear() {
+            all.clear();
+            images.clear();
+            texts.clear();
+            toggleables.clear();
+        }
+
+        synchronized boolean contains(byte[] id) {
+            return all.containsKey(probe.set(id, 0, id.length));
+        }
+        // true if this exact control (not just one with the same id) is still in the index
+        synchronized boolean isIndexed(ICustomControl control) {
+            byte[] id = control.getID();
+            return all.get(probe.set(id, 0, id.length)) == control;
+        }
+        synchronized <T> T get(byte[] buf, int offset, int length, Class<T> type) {
+            ICustomControl control = all.get(probe.set(buf, offset, length));
+            return type.isInstance(control) ? type.cast(control) : null;
+        }
+        synchronized IImageLike getImage(byte[] buf, int offset, int length) { return images.get(probe.set(buf, offset, length)); }
+        synchronized ITextLike getText(byte[] buf, int offset, int length) { return texts.get(probe.set(buf, offset, length)); }
+        synchronized IToggleable getToggleable(byte[] buf, int offset, int length) { return toggleables.get(probe.set(buf, offset, length)); }
+        synchronized List<IToggleable> getToggleables() { return new ArrayList<>(toggleables.values()); }
+        synchronized List<IImageLike> getImages() { return new ArrayList<>(images.values()); }
     }
-    private ICustomControl getCustomControlWithIDWhere(byte[] id, Predicate<ICustomControl> predicate) {
-        for (ICustomControl control : customControls) {
-            if (predicate.test(control) && Arrays.equals(control.getID(), id)) return control;
+
+    private final CustomControlIndex customControlIndex = new CustomControlIndex();
+    private static final float BOUNDS_PADDING = 4; // extra room around control bounds to cover antialiasing
+
+    // the surface that custom controls live on - controls are drawn straight onto the (hardware accelerated) view canvas,
+    // and a change to a control only invalidates the area it covers (old and new bounds) rather than the whole panel.
+    // all invalidations made before the next frame are coalesced by the view system into a single draw pass.
+    public static class ControlPanelView extends View {
+        private final List<ICustomControl> controls = new ArrayList<>(); // draw order (last is on top) - guarded by itself
+        private final HashMap<ICustomControl, RectF> bounds = new HashMap<>(); // where each control is drawn - guarded by controls
+        private final Paint measurePaint = new Paint(); // guarded by controls
+        private final Paint paint = new Paint(); // ui thread only
+        private final Rect clip = new Rect();    // ui thread only
+        private volatile Metrics.Histogram drawTimes = null;
+
+        public ControlPanelView(Context context) { super(context); }
+        public ControlPanelView(Context context, AttributeSet attrs) { super(context, attrs); }
+        public ControlPanelView(Context context, AttributeSet attrs, int defStyleAttr) { super(context, attrs, defStyleAttr); }
+
+        private float getBaseFontSize() { return 30 * ((float)getHeight() / 1200); }
+
+        // every draw's duration is recorded here (null to not record)
+        void setDrawTimes(Metrics.Histogram histogram) { drawTimes = histogram; }
+
+        // all of these can be called from any thread
+        int getControlCount() {
+            synchronized (controls) { return controls.size(); }
+        }
+        void addControl(ICustomControl control) {
+            synchronized (controls) {
+                controls.add(control);
+                if (controls.size() == 1) postInvalidate(); // get rid of the placeholder message
+                else invalidateControlLocked(control);
+            }
+        }
+        void removeControl(ICustomControl control) {
+            synchronized (controls) {
+                if (!controls.remove(control)) return;
+                RectF old = bounds.remove(control);
+                if (old == null || controls.isEmpty()) postInvalidate();
+                else postInvalidateRect(old);
+            }
+        }
+        void clearControls() {
+            synchronized (controls) {
+                controls.clear();
+                bounds.clear();
+            }
+            postInvalidate();
+        }
+        // marks a control as needing to be redrawn - call this after any visual change
+        void invalidateControl(ICustomControl control) {
+            synchronized (controls) { invalidateControlLocked(control); }
+        }
+        private void invalidateControlLocked(ICustomControl control) {
+            if (getHeight() <= 0) return; // not laid out yet - everything gets drawn once we are
+            RectF rect = bounds.get(control);
+            if (rect == null) bounds.put(control, rect = new RectF());
+            else postInvalidateRect(rect); // old area
+            control.getBounds(rect, measurePaint, getBaseFontSize());
+            postInvalidateRect(rect); // new area
         }
-        return null;
+        private void postInvalidateRect(RectF rect) {
+            postInvalidate((int)Math.floor(rect.left), (int)Math.floor(rect.top), (int)Math.ceil(rect.right), (int)Math.ceil(rect.bottom));
+        }
+
+        // false if the control is outside the panel or completely under an image box drawn after it (those are opaque)
+        boolean isControlVisible(ICustomControl control) {
+            RectF rect = new RectF(), above = new RectF();
+            synchronized (controls) {
+                int index = controls.indexOf(control);
+                if (index < 0) return false;
+                float baseFontSize = getBaseFontSize();
+                control.getBounds(rect, measurePaint, baseFontSize);
+                if (!rect.intersects(0, 0, getWidth(), getHeight())) return false;
+                for (int i = index + 1; i < controls.size(); ++i) {
+                    ICustomControl other = controls.get(i);
+                    if (!(other instanceof IImageLike)) continue;
+                    other.getBounds(above, measurePaint, baseFontSize);
+                    if (above.contains(rect)) return false;
+                }
+            }
+            return true;
+        }
+
+        // gets the top-most control under the given point, or null if there is none
+        ICustomControl getControlAt(int x, int y) {
+            synchronized (controls) {
+                for (int i = controls.size() - 1; i >= 0; --i) { // iterate backwards because we draw forwards, so back is on top layer
+                    ICustomControl control = controls.get(i);
+                    if (control.containsPoint(x, y)) return control;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+            super.onSizeChanged(w, h, oldw, oldh);
+            synchronized (controls) { bounds.clear(); } // font size depends on the height, so everything needs to be remeasured
+        }
+        @Override
+        protected void onDraw(Canvas canvas) {
+            super.onDraw(canvas);
+            long start = System.nanoTime();
+            try { drawControls(canvas); }
+            finally {
+                Metrics.Histogram times = drawTimes;
+                if (times != null) times.recordSince(start);
+            }
+        }
+        private void drawControls(Canvas canvas) {
+            float baseFontSize = getBaseFontSize();
+            paint.reset();
+            paint.setAntiAlias(true);
+            paint.setTextSize(baseFontSize);
+            if (!canvas.getClipBounds(clip)) return;
+
+            synchronized (controls) {
+                if (controls.isEmpty()) { // if there aren't any controls, put a message to let them know it's intentionally empty
+                    String msg = "Add controls through NetsBlox!";
+                    float len = paint.measureText(msg);
+                    canvas.drawText(msg, (getWidth() - len) / 2f, getHeight() / 2f, paint);
+                    return;
+                }
+                for (ICustomControl control : controls) { // draw everything in the dirty area (in order) so overlapping controls still layer correctly
+                    RectF rect = bounds.get(control);
+                    if (rect == null) {
+                        bounds.put(control, rect = new RectF());
+                        control.getBounds(rect, measurePaint, baseFontSize);
+                    }
+                    if (rect.intersects(clip.left, clip.top, clip.right, clip.bottom)) control.draw(canvas, paint, baseFontSize);
+                }
+            }
+        }
+    }
+    private ControlPanelView controlPanel;
+
+    private void invalidateCustomControl(ICustomControl control) {
+        controlPanel.invalidateControl(control);
     }
     private byte tryAddCustomControl(ICustomControl control) {
-        if (customControls.size() >= MAX_CUSTOM_CONTROLS) return 1;
-        byte[] id = control.getID();
-        for (ICustomControl other : customControls) {
-            if (Arrays.equals(id, other.getID())) return 2;
-        }
-        customControls.add(control);
-        redrawCustomControls(false);
+        if (controlPanel.getControlCount() >= MAX_CUSTOM_CONTROLS) return 1;
+        if (customControlIndex.contains(control.getID())) return 2;
+        customControlIndex.add(control);
+        controlPanel.addControl(control);
         return 0;
     }
+    // the index lock is held over the cache removal so an encode that finishes concurrently can't put an entry back (see netsbloxSend)
+    private void removeCustomControl(byte[] buf, int offset, int length) {
+        ICustomControl control;
+        synchronized (customControlIndex) {
+            control = customControlIndex.remove(buf, offset, length);
+            if (control instanceof IImageLike) encodedImageCache.remove((IImageLike)control);
+        }
+        if (control != null) controlPanel.removeControl(control);
+        if (control instanceof IImageLike) ((IImageLike)control).releaseImage();
+    }
+    private void clearCustomControls() {
+        List<IImageLike> images;
+        synchronized (customControlIndex) {
+            images = customControlIndex.getImages();
+            customControlIndex.clear();
+            encodedImageCache.clear();
+        }
+        controlPanel.clearControls();
+        for (IImageLike image : images) image.releaseImage();
+    }
 
     private static class PointerInfo {
         @NonNull public ICustomControl target;
@@ -1587,7 +2298,6 @@ public class MainActivity extends AppCompatActivity {
     private boolean handleCustomControlOnTouch(View view, MotionEvent e) {
         HashSet<Integer> nowPointers = new HashSet<>();
         List<Integer> purgeList = new ArrayList<>(4);
-        boolean didSomething = false;
 
         synchronized (activePointers) {
             // look at all the pointers that are represented in this event (still alive)
@@ -1601,24 +2311,21 @@ public class MainActivity extends AppCompatActivity {
 
                 // if it's not in the active pointers map, it's a new touch down event
                 if (continuedControl == null) {
-                    for (int j = customControls.size() - 1; j >= 0; --j) { // find the first thing we clicked (iterate backwards because we draw forwards, so back is on top layer)
-                        ICustomControl target = customControls.get(j);
-                        if (target.containsPoint(x, y)) {
-                            boolean good = true;
-                            for (PointerInfo info : activePointers.values()) { // check if there's already a pointer active on the given target
-                                if (info.target != target) continue;
-                                good = false;
-                                break;
-                            }
-                            if (good) { // only do something if there's not another pointer for the same target
-                                try { target.handleMouseDown(view, this, x, y); }
-                                catch (Exception ignored) {}
-
-                                activePointers.put(id, new PointerInfo(target, x, y));
-                                didSomething = true;
-                            }
+                    ICustomControl target = controlPanel.getControlAt(x, y); // find the first thing we clicked
+                    if (target != null) {
+                        boolean good = true;
+                        for (PointerInfo info : activePointers.values()) { // check if there's already a pointer active on the given target
+                            if (info.target != target) continue;
+                            good = false;
                             break;
                         }
+                        if (good) { // only do something if there's not another pointer for the same target
+                            try { target.handleMouseDown(view, this, x, y); }
+                            catch (Exception ignored) {}
+
+                            activePointers.put(id, new PointerInfo(target, x, y));
+                            invalidateCustomControl(target);
+                        }
                     }
                 }
                 // otherwise we are continuing an ongoing touch event
@@ -1626,7 +2333,7 @@ public class MainActivity extends AppCompatActivity {
                     try { continuedControl.target.handleMouseMove(view, this, x, y); }
                     catch (Exception ignored) {}
 
-                    didSomething = true;
+                    invalidateCustomControl(continuedControl.target);
                 }
             }
 
@@ -1643,25 +2350,64 @@ public class MainActivity extends AppCompatActivity {
             // we have to remove them after loop to avoid modification during iteration
             for (Integer key : purgeList) {
                 PointerInfo info = activePointers.remove(key);
-                didSomething = true;
+                invalidateCustomControl(info.target);
 
                 try { info.target.handleMouseUp(view, this); }
                 catch (Exception ignored) {}
             }
         }
 
-        if (didSomething) redrawCustomControls(false);
-
         return true;
     }
 
     private Bitmap getDefaultImage() {
-        Bitmap img = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(img);
-        canvas.drawRect(0, 0, 100, 100, new Paint(Color.BLACK));
+        Bitmap img = bitmapPool.get(100, 100, false);
+        img.eraseColor(Color.BLACK);
         return img;
     }
 
+    // every bitmap we keep goes through the pool (see BitmapPool) - once it's over budget, trimImages evicts image box content
+    // (least recently used first) that isn't on screen (covered boxes count as off screen, and everything does while we're in the background).
+    // compressing and restoring evicted images is slow, so it happens on imageThread - only the reference swaps are done under the image locks
+    private static final long MIN_BITMAP_BUDGET = 4 * 1024 * 1024;
+    private static long getDefaultBitmapBudget() { return Math.max(MIN_BITMAP_BUDGET, Runtime.getRuntime().maxMemory() / 4); }
+    private final AtomicBoolean trimImagesPending = new AtomicBoolean(false);
+    private final BitmapPool bitmapPool = new BitmapPool(getDefaultBitmapBudget(), this::scheduleTrimImages);
+    private HandlerThread imageThread;
+    private Handler imageHandler;
+    private void scheduleTrimImages() {
+        if (!trimImagesPending.getAndSet(true)) imageHandler.post(this::trimImages); // we could be holding an image lock, so evict later
+    }
+    private volatile boolean panelVisible = false; // false while we're in the background - nothing is on screen
+    // only called on imageThread
+    private void trimImages() {
+        trimImagesPending.set(false);
+        if (!bitmapPool.isOverBudget()) return;
+
+        List<IImageLike> images = customControlIndex.getImages();
+        long[] lastUsed = new long[images.size()];
+        Integer[] order = new Integer[images.size()];
+        for (int i = 0; i < order.length; ++i) {
+            lastUsed[i] = images.get(i).getLastUsed();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b])); // least recently used first
+
+        int count = 0;
+        long freed = 0;
+        for (int i : order) {
+            if (!bitmapPool.isOverBudget()) break;
+            IImageLike image = images.get(i);
+            if (image.isOnScreen()) continue;
+            long bytes = image.evict();
+            if (bytes == 0) continue;
+            freed += bytes;
+            ++count;
+            metrics.increment(Metrics.IMAGE_EVICTIONS);
+        }
+        System.err.printf("evicted %d images (%d bytes) - %d / %d bitmap bytes live\n", count, freed, bitmapPool.getLiveBytes(), bitmapPool.getBudget());
+    }
+
     // ----------------------------------------------
 
     private static final String MAC_ADDR_PREF_NAME = "MAC_ADDR"; // name to use for mac addr in stored app preferences
@@ -1673,22 +2419,140 @@ public class MainActivity extends AppCompatActivity {
     private static final int DEFAULT_SERVER_PORT = 1976;
     private static final int UDP_PORT = 8888;
     private SocketAddress netsbloxAddress = null; // target for heartbeat comms - can be changed at will
-    private DatagramSocket udpSocket = null;      // our socket for udp comms - do not close or change it
+    private DatagramChannel udpChannel = null;    // our channel for udp comms - do not close or change it
+    private Selector udpSelector = null;          // drives the network thread (receive, send-readiness, and wakeups)
+    private SelectionKey udpKey = null;
 
     private final byte[] macAddress = new byte[6];
 
     private Thread udpServerThread = null;
-    private Thread pipeThread = null;
     private Thread sensorStreamThread = null;
 
     private long next_heartbeat = 0;
 
+    // all the sensors that can be read/streamed by index (bit masks, subscriptions, etc.) - the first LEGACY_FRAME_SENSOR_COUNT are the contents of a 'Q' frame (in wire order)
+    private static final int MAX_SENSOR_PACKET_SIZE = 1024;
+    private static final int STREAM_SENSOR_COUNT = 18;
+    private static final int LEGACY_FRAME_SENSOR_COUNT = 16;
+    private static final int MAX_HISTORY_PACKET_SIZE = 1400; // content size limit for sensor history replies (keeps us under a typical mtu)
+    private BasicSensor[] streamSensors;
+    private double[][] streamSensorScratch;  // read buffers for each stream sensor - only touched by sensorStreamThread
+    private double[][] requestSensorScratch; // same, but only touched by udpServerThread (request handlers)
+
+    // reads a sensor into its buffer in the given scratch set - the buffer is replaced if the sensor's dimensions changed (e.g. spectrum reconfiguration)
+    private static double[] readSensor(double[][] scratch, int index, BasicSensor sensor) {
+        double[] dest = scratch[index];
+        int dims = sensor.getDimensions();
+        if (dest.length != dims) scratch[index] = dest = new double[dims];
+        sensor.read(dest);
+        return dest;
+    }
+    private final PacketEncoder sensorPacketEncoder = new PacketEncoder(macAddress, MAX_SENSOR_PACKET_SIZE);
+
+    // optional compact ('k') stream mode - replaces 'Q' and 'q' frames while enabled
+    private static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+    private static final int LOCATION_STREAM_INDEX = 11; // lat/long need full double precision
+    private volatile boolean compactStreamEnabled = false;
+    private final CompactStreamEncoder compactStreamEncoder = createCompactStreamEncoder();
+    private final double[][] compactStreamValues = new double[STREAM_SENSOR_COUNT][]; // only touched by sensorStreamThread
+
     private final Object sensorUpdateMutex = new Object();
     private long sensorUpdatePeriod = Long.MAX_VALUE; // guarded by sensorUpdateMutex
     private long nextSensorUpdate = Long.MAX_VALUE; // guarded by sensorUpdateMutex
+    private final SensorScheduler sensorScheduler = new SensorScheduler(STREAM_SENSOR_COUNT); // per-sensor subscriptions for 'q' frames - guarded by sensorUpdateMutex
 
-    private String reconnectRequest = null;
-    private final List<DatagramPacket> pipeQueue = new ArrayList<>();
+    private static class OutboundPacket {
+        public final ByteBuffer data;
+        public final SocketAddress dest;
+        public final long queued = System.nanoTime();
+
+        public OutboundPacket(ByteBuffer data, SocketAddress dest) {
+            this.data = data;
+            this.dest = dest;
+        }
+    }
+
+    private final Metrics metrics = new Metrics();
+
+    private static final int DEFAULT_IMAGE_BYTE_BUDGET = 60000; // fits in a single datagram, even for servers that don't do fragments
+    private static final int MIN_IMAGE_BYTE_BUDGET = 1024;
+    private volatile int imageByteBudget = DEFAULT_IMAGE_BYTE_BUDGET;
+    private final ImageEncoder imageEncoder = new ImageEncoder(bitmapPool); // only touched by udpServerThread
+    private final BitmapDecoder bitmapDecoder = new BitmapDecoder(bitmapPool);
+    private static final long ENCODED_IMAGE_CACHE_BYTES = 8 * 1024 * 1024;
+    private final EncodedImageCache<IImageLike> encodedImageCache = new EncodedImageCache<>(ENCODED_IMAGE_CACHE_BYTES);
+
+    // messages that don't fit in a single datagram are split into '+' fragments (see FragmentSender), and the receiver asks for any it missed with a '-' nack.
+    // we only fragment everything over the mtu once the server has shown it understands fragments (by sending us one) - until then, only what can't be sent at all
+    private static final int MAX_DATAGRAM_SIZE = 1400;      // assumed to fit in a single wifi frame (no ip fragmentation)
+    private static final int MAX_UNFRAGMENTED_SIZE = 65000; // content bigger than this can't go in a single datagram at all
+    private static final int FRAGMENT_CHUNK_SIZE = MAX_DATAGRAM_SIZE - PacketEncoder.HEADER_SIZE - 1 - FragmentSender.HEADER_SIZE;
+    private static final int MAX_NACK_ENTRIES = (MAX_DATAGRAM_SIZE - PacketEncoder.HEADER_SIZE - 1 - 6) / 2;
+    private static final int MAX_REASSEMBLED_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_PENDING_REASSEMBLY = 8;
+    private static final long FRAGMENT_NACK_DELAY = 50;     // ms of quiet before asking for missing fragments
+    private static final long FRAGMENT_TIMEOUT = 5000;      // ms of quiet before giving up on a message
+    private static final long MAX_RETAINED_FRAGMENT_BYTES = 4 * 1024 * 1024; // sent messages we keep around to answer nacks
+    private static final long FRAGMENT_RETAIN_TIME = 10000; // ms
+
+    private final FragmentSender fragmentSender = new FragmentSender(FRAGMENT_CHUNK_SIZE, MAX_RETAINED_FRAGMENT_BYTES, FRAGMENT_RETAIN_TIME, new Random().nextInt());
+    private final FragmentAssembler fragmentAssembler = new FragmentAssembler(MAX_REASSEMBLED_SIZE, MAX_PENDING_REASSEMBLY, FRAGMENT_NACK_DELAY, FRAGMENT_TIMEOUT); // only touched by udpServerThread
+    private long nextFragmentCheck = Long.MAX_VALUE; // only touched by udpServerThread
+    private volatile boolean peerFragments = false;
+
+    // a fragmented message still being sent - its fragments are pulled out as the socket takes them (after the outbound queue, and at a bounded rate)
+    // rather than all being queued up front. nacked fragments are resent through the outbound queue as usual
+    private static final class FragmentStream {
+        final int id;
+        final byte[] data;
+        final int offset, length, count;
+        final SocketAddress dest;
+        int next = 0; // only touched by udpServerThread
+
+        FragmentStream(int id, byte[] data, int offset, int length, int count, SocketAddress dest) {
+            this.id = id;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.dest = dest;
+        }
+    }
+    private static final int MAX_FRAGMENT_STREAMS = 16;   // fragmented messages waiting to go out - past this, new ones are dropped
+    private static final int FRAGMENT_WINDOW = 32;        // max fragments sent per pacing interval
+    private static final long FRAGMENT_PACE_INTERVAL = 4; // ms - together with the window, caps fragment output at ~11 MB/s
+    private final ConcurrentLinkedQueue<FragmentStream> fragmentStreams = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer fragmentSendBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE); // only touched by udpServerThread
+    private long fragmentWindowStart = 0;           // only touched by udpServerThread
+    private int fragmentWindowUsed = 0;             // only touched by udpServerThread
+    private long nextFragmentSend = Long.MAX_VALUE; // only touched by udpServerThread - when the window reopens, if we're waiting on it
+
+    private final FragmentAssembler.NackSink fragmentNackSink = (to, id, missing, count) -> {
+        count = Math.min(count, MAX_NACK_ENTRIES); // the rest will be asked for next time
+        ByteBuffer b = netsbloxAllocate((byte)'-', 4 + 2 + 2 * count);
+        b.putInt(id).putShort((short)count);
+        for (int i = 0; i < count; ++i) b.putShort((short)missing[i]);
+        netsbloxSend(b, to);
+    };
+
+    private static final long STATS_UPDATE_INTERVAL = 1000; // ms - only while the drawer is open
+    private final Runnable updateStatsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            TextView text = (TextView)getNavigationView(R.id.statsText);
+            text.setText(metrics.describe(outboundQueue.depth(), outboundQueue.getDropped())
+                    + String.format(Locale.US, "bitmaps %.1f / %.1f MB  free %.1f MB", bitmapPool.getLiveBytes() / 1048576.0, bitmapPool.getBudget() / 1048576.0, bitmapPool.getFreeBytes() / 1048576.0));
+            handler.postDelayed(this, STATS_UPDATE_INTERVAL);
+        }
+    };
+
+    private static final int OUTBOUND_LOSSY_CAPACITY = 64;     // max queued messages that are okay to drop (stale once newer ones exist)
+    private static final int OUTBOUND_RELIABLE_CAPACITY = 256; // max queued replies before spilling into the overflow list
+    private static final int OUTBOUND_OVERFLOW_CAPACITY = 4096; // max spilled replies - past this, replies are dropped (and counted) rather than growing memory
+
+    private volatile String reconnectRequest = null;
+    private final OutboundQueue<OutboundPacket> outboundQueue = new OutboundQueue<>(OUTBOUND_LOSSY_CAPACITY, OUTBOUND_RELIABLE_CAPACITY, OUTBOUND_OVERFLOW_CAPACITY);
+    private OutboundPacket pendingOutbound = null; // a message we failed to send due to a full socket buffer - only touched by udpServerThread
 
     private final Handler handler = new Handler();
 
@@ -1736,21 +2600,16 @@ public class MainActivity extends AppCompatActivity {
         this.runOnUiThread(() -> Toast.makeText(this, msg, duration).show());
     }
 
-    @FunctionalInterface
-    private interface SensorConsumer {
-        void apply(BasicSensor sensor) throws Exception;
-    }
-    @FunctionalInterface
-    private interface Predicate<T> { // for reasons that baffle even sheogorath, java.util.function.Predicate is only API level 24+
-        boolean test(T t);
-    }
-
     private void setSensorUpdatePeriods(long[] periods) {
         // we need to take the fastest speed, which is the shortest period
         long oldmin = sensorUpdatePeriod;
         long min = Long.MAX_VALUE;
         for (long p : periods) if (p < min) min = p;
 
+        // 'Q' frames have every sensor, so streaming them holds a reference to all of them
+        if (oldmin == Long.MAX_VALUE && min != Long.MAX_VALUE) for (int i = 0; i < LEGACY_FRAME_SENSOR_COUNT; ++i) acquireSensor(i);
+        else if (oldmin != Long.MAX_VALUE && min == Long.MAX_VALUE) for (int i = 0; i < LEGACY_FRAME_SENSOR_COUNT; ++i) releaseSensor(i);
+
         synchronized (sensorUpdateMutex) {
             // fix the next update time and period for current iteration
             nextSensorUpdate = min == Long.MAX_VALUE ? min : nextSensorUpdate - sensorUpdatePeriod + min;
@@ -1760,16 +2619,739 @@ public class MainActivity extends AppCompatActivity {
             if (min < oldmin) sensorUpdateMutex.notifyAll();
         }
     }
+    // periods[i] is the new period for sensors[i] (zero to unsubscribe) - no sensors at all means unsubscribe from everything
+    private void setSensorSubscriptions(int[] sensors, long[] periods) {
+        synchronized (sensorUpdateMutex) {
+            long now = System.currentTimeMillis();
+            if (sensors.length == 0) {
+                for (int i = 0; i < STREAM_SENSOR_COUNT; ++i) if (sensorScheduler.getPeriod(i) > 0) releaseSensor(i);
+                sensorScheduler.clear();
+            }
+            for (int i = 0; i < sensors.length; ++i) {
+                boolean wasSubscribed = sensorScheduler.getPeriod(sensors[i]) > 0, subscribe = periods[i] > 0;
+                if (!wasSubscribed && subscribe) acquireSensor(sensors[i]); // subscriptions hold a reference for as long as they exist
+                else if (wasSubscribed && !subscribe) releaseSensor(sensors[i]);
+                sensorScheduler.setPeriod(sensors[i], periods[i], now);
+            }
+
+            // the next due time can only have moved earlier, so wake up the stream thread to recompute its wait
+            sensorUpdateMutex.notifyAll();
+        }
+    }
+
+    // sensors are only registered while something is actually using them - indices are the same as streamSensors.
+    // demand can change from any thread, but sensors are only ever started/stopped on the ui thread (see applySensorDemand)
+    private static final long DEFAULT_SENSOR_IDLE_TIMEOUT = 30000; // ms
+    private static final long SENSOR_DEMAND_CHECK_INTERVAL = 1000; // ms
+    private final SensorDemandTracker sensorDemand = new SensorDemandTracker(STREAM_SENSOR_COUNT, DEFAULT_SENSOR_IDLE_TIMEOUT);
+    private int[] streamSensorDependencies; // for each stream sensor, the mask of stream sensors it needs running (itself included)
+    private int startedSensors = 0; // ui thread only
+    private final Runnable applySensorDemandRunnable = this::applySensorDemand;
+    private final Runnable expireSensorDemandRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (sensorDemand.expire(System.currentTimeMillis()) != 0) applySensorDemand();
+            handler.postDelayed(this, SENSOR_DEMAND_CHECK_INTERVAL);
+        }
+    };
+
+    // reads of a sensor that was just started wait (without blocking the udp thread - see deferUntilFresh) for its first new sample,
+    // so they never get whatever was left in the snapshot from the last time it ran. sensors that only report changes (or are slow to get a first fix) count as fresh
+    // once the timeout has passed since they actually started - then the reply is whatever the sensor has, in the usual format
+    private static final long SENSOR_WARMUP_TIMEOUT = 1000; // ms
+    private static final long MAX_DEFERRED_WAIT = 2 * SENSOR_WARMUP_TIMEOUT; // ms - cap for sensors that never start (e.g. stopped in the background)
+    private final AtomicLongArray sensorStartTimes = new AtomicLongArray(STREAM_SENSOR_COUNT);     // ms each sensor was started (0 while stopped)
+    private final AtomicLongArray sensorStartSequences = new AtomicLongArray(STREAM_SENSOR_COUNT); // each sensor's sample sequence number when it was started
+    private boolean isSensorFresh(int index, long now) {
+        BasicSensor sensor = streamSensors[index];
+        if (sensor instanceof SensorInfo && !sensor.isSupported()) return true; // no hardware - nothing to wait for
+        long started = sensorStartTimes.get(index);
+        if (started == 0) return false;
+        return now - started >= SENSOR_WARMUP_TIMEOUT || sensor.getSequence() > sensorStartSequences.get(index);
+    }
+    private int getStaleSensors(int mask, long now) {
+        int stale = 0;
+        for (int i = 0; i < STREAM_SENSOR_COUNT; ++i) {
+            if ((mask & (1 << i)) != 0 && !isSensorFresh(i, now)) stale |= 1 << i;
+        }
+        return stale;
+    }
+
+    // a sensor read waiting for its sensors to be fresh - replayed through the dispatcher once they are (which includes the warmup timeout from when each started),
+    // or at the deadline if some never start (see pollDeferredRequests)
+    private static final class DeferredRequest {
+        final RequestDispatcher.Request req;
+        final int sensors;
+        final long deadline;
+
+        DeferredRequest(RequestDispatcher.Request req, int sensors, long deadline) {
+            this.req = req;
+            this.sensors = sensors;
+            this.deadline = deadline;
+        }
+    }
+    private static final int MAX_DEFERRED_REQUESTS = 64;
+    private static final long DEFERRED_CHECK_INTERVAL = 10; // ms
+    private final ArrayList<DeferredRequest> deferredRequests = new ArrayList<>(); // only touched by udpServerThread
+    private long nextDeferredCheck = Long.MAX_VALUE; // only touched by udpServerThread
+    private boolean replayingRequest = false;        // only touched by udpServerThread
+
+    // if any of the sensors aren't fresh yet, keeps a copy of the request to handle again later and returns true (the handler should then return without replying).
+    // replays are never deferred again - handlers just reply with whatever the sensors have, same as for a fresh read
+    private boolean deferUntilFresh(RequestDispatcher.Request req, int sensors) {
+        if (replayingRequest || deferredRequests.size() >= MAX_DEFERRED_REQUESTS) return false;
+        long now = System.currentTimeMillis();
+        int stale = getStaleSensors(sensors, now);
+        if (stale == 0) return false;
+
+        RequestDispatcher.Request copy = new RequestDispatcher.Request(req.copyRange(0, req.length())); // the original is only valid until the next receive
+        copy.reset(req.length(), req.from());
+        deferredRequests.add(new DeferredRequest(copy, stale, now + MAX_DEFERRED_WAIT));
+        nextDeferredCheck = Math.min(nextDeferredCheck, now + DEFERRED_CHECK_INTERVAL);
+        return true;
+    }
+    // handles any deferred requests that are ready and returns when to check again
+    private long pollDeferredRequests(long now) {
+        for (int i = 0; i < deferredRequests.size(); ) {
+            DeferredRequest d = deferredRequests.get(i);
+            if (getStaleSensors(d.sensors, now) != 0 && now < d.deadline) { ++i; continue; }
+            deferredRequests.remove(i);
+            replayingRequest = true;
+            try { requestDispatcher.dispatch(d.req); }
+            catch (Exception ex) { metrics.increment(Metrics.HANDLER_ERRORS); } // don't let one bad request drop the rest
+            finally { replayingRequest = false; }
+        }
+        return deferredRequests.isEmpty() ? Long.MAX_VALUE : now + DEFERRED_CHECK_INTERVAL;
+    }
+
+    private void touchSensor(int index) {
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        int deps = streamSensorDependencies[index];
+        for (int i = 0; i < STREAM_SENSOR_COUNT; ++i) {
+            if ((deps & (1 << i)) != 0 && sensorDemand.touch(i, now)) changed = true;
+        }
+        if (changed) handler.post(applySensorDemandRunnable);
+    }
+    private void acquireSensor(int index) {
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        int deps = streamSensorDependencies[index];
+        for (int i = 0; i < STREAM_SENSOR_COUNT; ++i) {
+            if ((deps & (1 << i)) != 0 && sensorDemand.acquire(i, now)) changed = true;
+        }
+        if (changed) handler.post(applySensorDemandRunnable);
+    }
+    private void releaseSensor(int index) {
+        long now = System.currentTimeMillis();
+        int deps = streamSensorDependencies[index];
+        for (int i = 0; i < STREAM_SENSOR_COUNT; ++i) {
+            if ((deps & (1 << i)) != 0) sensorDemand.release(i, now); // actually stopping waits for the idle timeout
+        }
+    }
+    // starts/stops sensors so that exactly the ones in demand are running (none if the app is stopped) - must be called from the ui thread
+    private void applySensorDemand() {
+        boolean running;
+        synchronized (sensorsRunning) { running = sensorsRunning[0]; }
+        int wanted = running ? sensorDemand.getActive() : 0;
+
+        for (int i = 0; i < streamSensors.length; ++i) {
+            boolean want = (wanted & (1 << i)) != 0, started = (startedSensors & (1 << i)) != 0;
+            if (want == started) continue;
+
+            BasicSensor sensor = streamSensors[i];
+            if (want) sensorStartSequences.set(i, sensor.getSequence()); // anything newer than this is fresh
+            else sensorStartTimes.set(i, 0);
+            if (sensor instanceof SensorInfo) {
+                if (want) ((SensorInfo)sensor).start();
+                else ((SensorInfo)sensor).stop();
+            }
+            else if (sensor == location) {
+                if (want) {
+                    location.start();
+                    startLocationBackoff();
+                }
+                else {
+                    stopLocationBackoff();
+                    location.stop();
+                }
+            }
+            else if (sensor == soundSensor) {
+                if (want) soundSensor.start();
+                else soundSensor.stop();
+            }
+            else if (sensor == spectrumSensor) soundSensor.setPcmListener(want ? spectrumSensor : null); // the sound sensor itself is a dependency
+            else if (sensor == orientationCalculator) orientationCalculator.setActive(want); // so are its inputs
+            // anything else is computed from other sensors (see streamSensorDependencies)
+
+            if (want) sensorStartTimes.set(i, Math.max(1, System.currentTimeMillis()));
+            startedSensors ^= 1 << i;
+        }
+    }
+
+    private final RequestDispatcher requestDispatcher = new RequestDispatcher();
+    private void registerSensorRequest(char opcode, BasicSensor sensor) {
+        int index = Arrays.asList(streamSensors).indexOf(sensor);
+        requestDispatcher.register(opcode, req -> {
+            if (req.length() != 9) return; // ignore invalid format
+            touchSensor(index);
+            if (deferUntilFresh(req, 1 << index)) return;
+            if (sensor.isSupported()) { // if the sensor is supported, send back all the content
+                double[] v = new double[sensor.getDimensions()];
+                sensor.read(v);
+                ByteBuffer b = ByteBuffer.allocate(1 + v.length * 8).put(req.opcode());
+                for (double val : v) b.putDouble(val);
+                netsbloxSend(b.array(), req.from());
+            }
+            // otherwise send back the acknowledgement, but no data
+            else netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+    }
+    // reads every sensor in the mask (bit i is streamSensors[i]) into a single reply - same vector format as 'Q' (unsupported sensors have length 0)
+    private void handleBatchedSensorRequest(RequestDispatcher.Request req) {
+        if (req.length() != 13) return; // ignore invalid format
+        int mask = req.getInt(9) & ((1 << STREAM_SENSOR_COUNT) - 1);
+
+        for (int i = 0; i < streamSensors.length; ++i) {
+            if ((mask & (1 << i)) != 0) touchSensor(i);
+        }
+        if (deferUntilFresh(req, mask)) return;
+
+        int size = 0, supported = 0; // read everything up front so the size can't change out from under us (e.g. location permissions)
+        for (int i = 0; i < streamSensors.length; ++i) {
+            if ((mask & (1 << i)) == 0) continue;
+            BasicSensor sensor = streamSensors[i];
+            if (sensor.isSupported()) {
+                supported |= 1 << i;
+                size += 1 + readSensor(requestSensorScratch, i, sensor).length * 8;
+            }
+            else size += 1;
+        }
+
+        ByteBuffer b = netsbloxAllocate(req.opcode(), size);
+        for (int i = 0; i < streamSensors.length; ++i) {
+            if ((mask & (1 << i)) == 0) continue;
+            if ((supported & (1 << i)) == 0) { b.put((byte)0); continue; }
+            double[] v = requestSensorScratch[i];
+            b.put((byte)v.length);
+            for (double val : v) b.putDouble(val);
+        }
+        netsbloxSend(b, req.from());
+    }
+    // sends everything captured for a sensor since the given sequence number (as much as fits in one packet) - the first fetch turns on capturing.
+    // request: u8 sensor index (streamSensors order), i64 since (negative to stop capturing).
+    // reply: u8 status (0 ok, 1 invalid sensor, 2 unsupported), then if ok (and not stopping): u8 index, u8 dims, i64 first, i64 next, u16 count, then count (i64 timestamp ns, f32 values...)
+    private void handleSensorHistoryRequest(RequestDispatcher.Request req) {
+        if (req.length() != 18) return; // ignore invalid format
+        int index = req.getU8(9);
+        long since = req.getLong(10);
+        if (index >= streamSensors.length) { netsbloxSend(new byte[] { req.opcode(), 1 }, req.from()); return; }
+        touchSensor(index);
+        if (!(streamSensors[index] instanceof SensorInfo) || !streamSensors[index].isSupported()) { // only hardware sensors have events worth capturing
+            netsbloxSend(new byte[] { req.opcode(), 2 }, req.from());
+            return;
+        }
+
+        SensorInfo sensor = (SensorInfo)streamSensors[index];
+        if (since < 0) {
+            sensor.setCapturing(false);
+            netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+            return;
+        }
+        sensor.setCapturing(true);
+        if (deferUntilFresh(req, 1 << index)) return;
+        sensor.flush(); // if we're batching, anything still in the fifo will be available on the next fetch
+        SampleRing ring = sensor.getCaptureRing();
+
+        int maxSamples = (MAX_HISTORY_PACKET_SIZE - 21) / ring.getEncodedSampleSize();
+        int count = Math.min(ring.countSince(since), maxSamples); // more can arrive in the meantime, but encode() never writes more than this
+        ByteBuffer b = netsbloxAllocate(req.opcode(), 21 + count * ring.getEncodedSampleSize());
+        b.put((byte)0).put((byte)index).put((byte)ring.getDimensions());
+        ring.encode(b, since, count);
+        netsbloxSend(b, req.from());
+    }
+    // must be called after all the sensors have been created
+    private void registerRequestHandlers() {
+        registerSensorRequest('A', accelerometer);
+        registerSensorRequest('G', gravity);
+        registerSensorRequest('L', linearAcceleration);
+        registerSensorRequest('Y', gyroscope);
+        registerSensorRequest('R', rotationVector);
+        registerSensorRequest('r', gameRotationVector);
+        registerSensorRequest('M', magneticField);
+        registerSensorRequest('m', soundSensor);
+        registerSensorRequest('P', proximity);
+        registerSensorRequest('S', stepCounter);
+        registerSensorRequest('l', light);
+        registerSensorRequest('F', pressure);
+        registerSensorRequest('f', ambientTemperature);
+        registerSensorRequest('K', relativeHumidity);
+        registerSensorRequest('X', location);
+        registerSensorRequest('O', orientationCalculator);
+        registerSensorRequest('^', spectrumSensor);
+        registerSensorRequest('!', soundSensor.getLevels());
+        requestDispatcher.register('v', this::handleBatchedSensorRequest);
+        requestDispatcher.register('s', this::handleSensorHistoryRequest);
+
+        requestDispatcher.register('~', req -> { // set sensor idle timeout (i32 ms) - sensors that haven't been used for this long are turned off
+            if (req.length() != 13) return;
+            sensorDemand.setIdleTimeout(req.getInt(9));
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('%', req -> { // set sound level window (i32 ms) - this is also the rate of new sound sensor values
+            if (req.length() != 13) return;
+            soundSensor.setWindowMs(req.getInt(9));
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('+', req -> { // fragment of a larger request - u32 id, u32 total length, u32 offset, u16 index, u16 count, data
+            if (req.length() < 9 + FragmentSender.HEADER_SIZE) return;
+            peerFragments = true;
+            long now = System.currentTimeMillis();
+            FragmentAssembler.Message msg = fragmentAssembler.accept(req.from(), req.getInt(9), req.getInt(13), req.getInt(17), req.getU16(21), req.getU16(23),
+                    req.array(), 9 + FragmentSender.HEADER_SIZE, req.length() - 9 - FragmentSender.HEADER_SIZE, now);
+            nextFragmentCheck = now; // nack deadlines moved
+            if (msg == null) return;
+
+            try { // the reassembled message is a whole request of its own (with its own auth)
+                if (msg.length < 9 || msg.data[0] == '+' || fromBEBytes(msg.data, 1, 8) != getPassword()) {
+                    metrics.increment(Metrics.AUTH_FAILURES);
+                    return;
+                }
+                RequestDispatcher.Request inner = new RequestDispatcher.Request(msg.data);
+                inner.reset(msg.length, msg.from);
+                long start = System.nanoTime();
+                try {
+                    if (!requestDispatcher.dispatch(inner)) metrics.increment(Metrics.UNKNOWN_OPCODES);
+                }
+                finally { metrics.request(inner.opcode()).recordSince(start); }
+            }
+            finally { fragmentAssembler.release(msg); }
+        });
+        requestDispatcher.register('-', req -> { // nack - u32 id, u16 count, then count u16 fragment indices to resend
+            if (req.length() < 15) return;
+            peerFragments = true;
+            int id = req.getInt(9), count = req.getU16(13);
+            if (req.length() != 15 + 2 * count) return;
+            int length = fragmentSender.getLength(id);
+            if (length < 0) return; // no longer retained - nothing we can do
+            for (int i = 0; i < count; ++i) sendFragment(id, req.getU16(15 + 2 * i), length, req.from());
+        });
+        requestDispatcher.register('=', req -> { // set image byte budget (i32) - encoded image replies are kept within this (by quality, format, and size)
+            if (req.length() != 13) return;
+            imageByteBudget = Math.max(MIN_IMAGE_BYTE_BUDGET, Math.min(MAX_REASSEMBLED_SIZE, req.getInt(9)));
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('$', req -> { // set bitmap memory budget (i64 bytes) - zero restores the default
+            if (req.length() != 17) return;
+            long budget = req.getLong(9);
+            bitmapPool.setBudget(budget <= 0 ? getDefaultBitmapBudget() : Math.max(MIN_BITMAP_BUDGET, Math.min(Runtime.getRuntime().maxMemory(), budget)));
+            if (bitmapPool.isOverBudget()) scheduleTrimImages();
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('#', req -> { // get stats - i32 queue depth, i64 queued, i64 sent, i64 dropped, then the metrics (see Metrics.encode)
+            ByteBuffer b = netsbloxAllocate(req.opcode(), 4 + 3 * 8 + metrics.getEncodedSize());
+            b.putInt(outboundQueue.depth()).putLong(outboundQueue.getEnqueued()).putLong(outboundQueue.getSent()).putLong(outboundQueue.getDropped());
+            metrics.encode(b, 255);
+            netsbloxSend(b, req.from());
+        });
+        requestDispatcher.register('@', req -> { // set location profile - u8 profile (see LocationSensor), bool adaptive (back off while stationary)
+            if (req.length() != 11) return;
+            int profile = req.getU8(9);
+            if (profile > LocationSensor.PROFILE_PASSIVE) {
+                netsbloxSend(new byte[] { req.opcode(), 1 }, req.from());
+                return;
+            }
+            locationAdaptive = req.getBool(10);
+            updateLocationMotionSensors();
+            location.setProfile(profile);
+            netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+        });
+        requestDispatcher.register('&', req -> { // configure spectrum - u8 band count, f32 min frequency (Hz)
+            if (req.length() != 14) return;
+            int bands = req.getU8(9);
+            float minFrequency = req.getFloat(10);
+            if (bands < 1 || bands > SpectrumSensor.MAX_BANDS || !(minFrequency > 0 && minFrequency < SoundSensor.SAMPLE_RATE / 2)) {
+                netsbloxSend(new byte[] { req.opcode(), 1 }, req.from());
+                return;
+            }
+            try { spectrumSensor.configure(bands, minFrequency); }
+            catch (IllegalArgumentException ignored) {
+                netsbloxSend(new byte[] { req.opcode(), 1 }, req.from());
+                return;
+            }
+            netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+        });
+        requestDispatcher.register('a', req -> { // authenticate (no-op)
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('p', req -> { // set sensor update periods
+            if (req.length() < 9 || (req.length() - 9) % 4 != 0) return;
+            long[] vals = new long[(req.length() - 9) / 4];
+            for (int i = 0; i < vals.length; ++i) vals[i] = req.getInt(9 + i * 4);
+            setSensorUpdatePeriods(vals);
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('o', req -> { // set per-sensor subscriptions - list of (u8 sensor index, i32 period ms)
+            if (req.length() < 9 || (req.length() - 9) % 5 != 0) return;
+            int[] sensors = new int[(req.length() - 9) / 5];
+            long[] periods = new long[sensors.length];
+            for (int i = 0; i < sensors.length; ++i) {
+                sensors[i] = req.getU8(9 + i * 5);
+                periods[i] = req.getInt(10 + i * 5);
+                if (sensors[i] >= STREAM_SENSOR_COUNT) { // reject the whole thing so we don't end up half-applied
+                    netsbloxSend(new byte[] { req.opcode(), 1 }, req.from());
+                    return;
+                }
+            }
+            setSensorSubscriptions(sensors, periods);
+            netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+        });
+        requestDispatcher.register('x', req -> { // configure compact stream - bool enabled, i32 keyframe interval, then list of (u8 sensor index, u8 encoding, f32 epsilon)
+            if (req.length() < 14 || (req.length() - 14) % 6 != 0) return;
+            int entries = (req.length() - 14) / 6;
+            for (int i = 0; i < entries; ++i) { // validate everything first so we don't end up half-applied
+                int p = 14 + i * 6;
+                int encoding = req.getU8(p + 1);
+                if (req.getU8(p) >= STREAM_SENSOR_COUNT || (encoding != CompactStreamEncoder.ENCODING_F64 && encoding != CompactStreamEncoder.ENCODING_F32)) {
+                    netsbloxSend(new byte[] { req.opcode(), 1 }, req.from());
+                    return;
+                }
+            }
+            compactStreamEncoder.setKeyframeInterval(req.getInt(10));
+            for (int i = 0; i < entries; ++i) {
+                int p = 14 + i * 6;
+                compactStreamEncoder.configure(req.getU8(p), req.getU8(p + 1), req.getFloat(p + 2));
+            }
+            compactStreamEncoder.requestKeyframe(); // the receiver needs a full picture after any change in format
+            compactStreamEnabled = req.getBool(9);
+            netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+        });
+        requestDispatcher.register('u', req -> { // get image
+            if (req.length() < 9) return;
+            IImageLike target = customControlIndex.getImage(req.array(), 9, req.length() - 9);
+            if (target == null) netsbloxSend(new byte[] { req.opcode() }, req.from());
+            else netsbloxSend(new byte[] { req.opcode() }, target, req.from());
+        });
+        requestDispatcher.register('i', req -> { // set image
+            if (req.length() < 10) return;
+            int idlen = req.getU8(9);
+            if (req.length() < 10 + idlen) return;
+            IImageLike target = customControlIndex.getImage(req.array(), 10, idlen); // image content is everything after this block
+            if (target == null) netsbloxSend(new byte[]{ req.opcode(), 3 }, req.from());
+            else {
+                Bitmap img = bitmapDecoder.decode(req.array(), 10 + idlen, req.length() - (10 + idlen), target.getDisplayWidth(), target.getDisplayHeight(), target.coversDisplay());
+                System.err.printf("decoded image: %dx%d\n", img.getWidth(), img.getHeight());
+                target.setImage(img, true);
+                netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+            }
+        });
+        requestDispatcher.register('H', req -> { // set text
+            if (req.length() < 10) return;
+            int idlen = req.getU8(9);
+            if (req.length() < 10 + idlen) return;
+            ITextLike target = customControlIndex.getText(req.array(), 10, idlen); // text content is everything after this block
+            if (target == null) netsbloxSend(new byte[] { req.opcode(), 3 }, req.from());
+            else {
+                String text = req.getString(10 + idlen);
+                target.setText(text);
+                netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+            }
+        });
+        requestDispatcher.register('h', req -> { // get text
+            if (req.length() < 9) return;
+            ITextLike target = customControlIndex.getText(req.array(), 9, req.length() - 9);
+            if (target == null) netsbloxSend(new byte[] { req.opcode() }, req.from());
+            else {
+                byte[] content = target.getText().getBytes("UTF-8");
+                netsbloxSend(ByteBuffer.allocate(2 + content.length).put(req.opcode()).put((byte)0).put(content).array(), req.from());
+            }
+        });
+        requestDispatcher.register('J', req -> { // get position
+            if (req.length() < 9) return;
+            IPositionLike target = customControlIndex.get(req.array(), 9, req.length() - 9, IPositionLike.class);
+            if (target == null) netsbloxSend(new byte[] { req.opcode() }, req.from());
+            else {
+                float[] vec = target.getPos();
+                if (vec == null) netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+                else netsbloxSend(ByteBuffer.allocate(10).put(req.opcode()).put((byte)1).putFloat(vec[0]).putFloat(vec[1]).array(), req.from());
+            }
+        });
+        requestDispatcher.register('E', req -> { // get level
+            if (req.length() < 9) return;
+            ILevelLike target = customControlIndex.get(req.array(), 9, req.length() - 9, ILevelLike.class);
+            if (target == null) netsbloxSend(new byte[] { req.opcode() }, req.from());
+            else netsbloxSend(ByteBuffer.allocate(5).put(req.opcode()).putFloat(target.getLevel()).array(), req.from());
+        });
+        requestDispatcher.register('e', req -> { // set level
+            if (req.length() < 13) return;
+            float level = req.getFloat(9);
+            ILevelLike target = customControlIndex.get(req.array(), 13, req.length() - 13, ILevelLike.class);
+            if (target == null) netsbloxSend(new byte[] { req.opcode(), 3 }, req.from());
+            else {
+                target.setLevel(level);
+                netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+            }
+        });
+        requestDispatcher.register('V', req -> { // is pushed
+            if (req.length() < 9) return;
+            IPushable target = customControlIndex.get(req.array(), 9, req.length() - 9, IPushable.class);
+            netsbloxSend(new byte[] { req.opcode(), (byte)(target == null ? 2 : target.isPushed() ? 1 : 0) }, req.from());
+        });
+        requestDispatcher.register('W', req -> { // get toggle state
+            if (req.length() < 9) return;
+            IToggleable target = customControlIndex.getToggleable(req.array(), 9, req.length() - 9);
+            netsbloxSend(new byte[] { req.opcode(), (byte)(target == null ? 2 : target.getToggleState() ? 1 : 0) }, req.from());
+        });
+        requestDispatcher.register('w', req -> { // set toggle state
+            if (req.length() < 10) return;
+            boolean state = req.getBool(9);
+            IToggleable target = customControlIndex.getToggleable(req.array(), 10, req.length() - 10);
+            if (target == null) netsbloxSend(new byte[] { req.opcode(), 3 }, req.from());
+            else {
+                target.setToggleState(state);
+                netsbloxSend(new byte[] { req.opcode(), 0 }, req.from());
+            }
+        });
+        requestDispatcher.register('C', req -> { // clear custom controls
+            if (req.length() != 9) return;
+            clearCustomControls();
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('c', req -> { // remove specific custom control
+            if (req.length() < 9) return;
+            removeCustomControl(req.array(), 9, req.length() - 9);
+            netsbloxSend(new byte[] { req.opcode() }, req.from());
+        });
+        requestDispatcher.register('B', req -> { // add custom button control
+            if (req.length() < 40) return;
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            int width = (int)(req.getFloat(17) / 100 * viewWidth);
+            int height = (int)(req.getFloat(21) / 100 * viewHeight);
+            int color = req.getInt(25);
+            int textColor = req.getInt(29);
+            float fontSize = req.getFloat(33);
+            ButtonStyle style;
+            switch (req.get(37)) {
+                case 0: default: style = ButtonStyle.Rect; break;
+                case 1: style = ButtonStyle.Ellipse; break;
+                case 2: height = width; style = ButtonStyle.Rect; break; // these are just like previous, but make perfect squares/circles based on width only
+                case 3: height = width; style = ButtonStyle.Ellipse; break;
+            }
+            boolean landscape = req.getBool(38);
+            int idlen = req.getU8(39);
+            if (req.length() < 40 + idlen) return;
+            byte[] id = req.copyRange(40, 40 + idlen);
+            String text = req.getString(40 + idlen);
+
+            ICustomControl control = new CustomButton(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    width, height,
+                    color, textColor, id, text, fontSize, style, landscape);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('j', req -> { // add custom joystick control
+            if (req.length() < 26) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            float width = req.getFloat(17);
+            int color = req.getInt(21);
+            boolean landscape = req.getBool(25);
+            byte[] id = req.copyRange(26, req.length());
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomJoystick(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    (int)(width / 100 * viewWidth),
+                    color, id, landscape);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('N', req -> { // add custom touchpad
+            if (req.length() < 31) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            float width = req.getFloat(17);
+            float height = req.getFloat(21);
+            int color = req.getInt(25);
+            if (req.get(29) == 1) {
+                height = width;
+            }
+            boolean landscape = req.getBool(30);
+            byte[] id = req.copyRange(31, req.length());
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomTouchpad(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    (int)(width / 100 * viewWidth), (int)(height / 100 * viewHeight),
+                    color, id, landscape);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('D', req -> { // add custom slider
+            if (req.length() < 32) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            float width = req.getFloat(17);
+            int color = req.getInt(21);
+            float level = req.getFloat(25);
+            SliderStyle style;
+            switch (req.get(29)) {
+                default: case 0: style = SliderStyle.Slider; break;
+                case 1: style = SliderStyle.Progress; break;
+            }
+            boolean landscape = req.getBool(30);
+            boolean readonly = req.getBool(31);
+            byte[] id = req.copyRange(32, req.length());
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomSlider(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    (int)(width / 100 * viewWidth),
+                    color, level, id, style, landscape, readonly);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('U', req -> { // add custom image display
+            if (req.length() < 28) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            float width = req.getFloat(17);
+            float height = req.getFloat(21);
+            boolean readonly = req.getBool(25);
+            boolean landscape = req.getBool(26);
+            FitType fit = parseFitType(req.get(27));
+            byte[] id = req.copyRange(28, req.length());
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            CustomImageBox control = new CustomImageBox(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    (int)(width / 100 * viewWidth), (int)(height / 100 * viewHeight),
+                    id, getDefaultImage(), readonly, landscape, fit);
+            byte res = tryAddCustomControl(control);
+            if (res != 0) control.releaseImage();
+            netsbloxSend(new byte[] { req.opcode(), res }, req.from());
+        });
+        requestDispatcher.register('T', req -> { // add custom text field control
+            if (req.length() < 41) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            float width = req.getFloat(17);
+            float height = req.getFloat(21);
+            int color = req.getInt(25);
+            int textColor = req.getInt(29);
+            float fontSize = req.getFloat(33);
+            Paint.Align align = parseTextAlign(req.get(37));
+            boolean readonly = req.getBool(38);
+            boolean landscape = req.getBool(39);
+            int idlen = req.getU8(40);
+            if (req.length() < 41 + idlen) return;
+            byte[] id = req.copyRange(41, 41 + idlen);
+            String text = req.getString(41 + idlen);
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomTextField(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    (int)(width / 100 * viewWidth), (int)(height / 100 * viewHeight),
+                    color, textColor, id, text, readonly, fontSize, align, landscape);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('g', req -> { // add custom label control
+            if (req.length() < 28) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            int textColor = req.getInt(17);
+            float fontSize = req.getFloat(21);
+            Paint.Align align = parseTextAlign(req.get(25));
+            boolean landscape = req.getBool(26);
+            int idlen = req.getU8(27);
+            if (req.length() < 28 + idlen) return;
+            byte[] id = req.copyRange(28, 28 + idlen);
+            String text = req.getString(28 + idlen);
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomLabel(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    textColor, id, text, fontSize, align, landscape);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('Z', req -> { // add custom checkbox control
+            if (req.length() < 34) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            int checkColor = req.getInt(17);
+            int textColor = req.getInt(21);
+            float fontSize = req.getFloat(25);
+            boolean checked = req.getBool(29);
+            CheckboxStyle style;
+            switch (req.get(30)) {
+                case 0: default: style = CheckboxStyle.ToggleSwitch; break;
+                case 1: style = CheckboxStyle.CheckBox; break;
+            }
+            boolean landscape = req.getBool(31);
+            boolean readonly = req.getBool(32);
+            int idlen = req.getU8(33);
+            if (req.length() < 34 + idlen) return;
+            byte[] id = req.copyRange(34, 34 + idlen);
+            String text = req.getString(34 + idlen);
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomCheckbox(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    checkColor, textColor, checked, id, text, style, fontSize, landscape, readonly);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+        requestDispatcher.register('y', req -> { // add custom radiobutton control
+            if (req.length() < 33) return;
+            float x = req.getFloat(9);
+            float y = req.getFloat(13);
+            int checkColor = req.getInt(17);
+            int textColor = req.getInt(21);
+            float fontSize = req.getFloat(25);
+            boolean state = req.getBool(29);
+            boolean landscape = req.getBool(30);
+            boolean readonly = req.getBool(31);
+            int idlen = req.getU8(32);
+            if (req.length() < 33 + idlen + 1) return;
+            byte[] id = req.copyRange(33, 33 + idlen);
+            int grouplen = req.getU8(33 + idlen);
+            if (req.length() < 33 + idlen + 1 + grouplen) return;
+            byte[] group = req.copyRange(33 + idlen + 1, 33 + idlen + 1 + grouplen);
+            String text = req.getString(33 + idlen + 1 + grouplen);
+
+            View view = controlPanel;
+            int viewWidth = view.getWidth(), viewHeight = view.getHeight();
+            ICustomControl control = new CustomRadioButton(
+                    (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
+                    checkColor, textColor, state, id, group, text, fontSize, landscape, readonly);
+            netsbloxSend(new byte[] { req.opcode(), tryAddCustomControl(control) }, req.from());
+        });
+    }
 
     private void requestConnReset() {
         try { if (netsbloxAddress != null) netsbloxSend(new byte[] { (byte)'I', 86 }, netsbloxAddress); }
         catch (Exception ignored) {}
     }
     private void connectToServer() {
-        if (udpSocket == null) {
+        if (udpChannel == null) {
             System.err.printf("opening port %d\n", UDP_PORT);
 
-            try { udpSocket = new DatagramSocket(UDP_PORT); }
+            try {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.socket().bind(new InetSocketAddress(UDP_PORT)); // DatagramChannel.bind() is only API level 24+
+                channel.configureBlocking(false);
+                udpSelector = Selector.open();
+                udpKey = channel.register(udpSelector, SelectionKey.OP_READ);
+                udpChannel = channel;
+            }
             catch (Exception ex) {
                 Toast.makeText(this, String.format("Failed to open udp port %d: %s", UDP_PORT, ex.toString()), Toast.LENGTH_SHORT).show();
                 return;
@@ -1777,11 +3359,13 @@ public class MainActivity extends AppCompatActivity {
         }
 
         reconnectRequest = ((EditText)getNavigationView(R.id.serverHostText)).getText().toString();
+        udpSelector.wakeup(); // let the network thread see the reconnect request immediately
 
         if (udpServerThread == null) {
             udpServerThread = new Thread(() -> {
                 byte[] buf = new byte[64 * 1024]; // must be big enough to hold any UDP datagram
-                DatagramPacket packet = new DatagramPacket(buf, 0, buf.length);
+                ByteBuffer recvBuffer = ByteBuffer.wrap(buf);
+                RequestDispatcher.Request request = new RequestDispatcher.Request(buf);
                 while (true) {
                     try {
                         // wait until we're in the foreground (sensors are running)
@@ -1802,9 +3386,7 @@ public class MainActivity extends AppCompatActivity {
                                 byte[] msg = netsbloxFormat(new byte[] { 'I', 0 }); // send a hearbeat with an ack request flag
 
                                 // check to make sure the address is good (send empty packet, which will trigger the server to send us an 'I' conn ack message)
-                                synchronized (pipeQueue) { // lock pipeQueue so we can send from the socket
-                                    udpSocket.send(new DatagramPacket(msg, msg.length, temp)); // netsbloxSend would hide the exception, which is what we want to test for
-                                }
+                                udpChannel.send(ByteBuffer.wrap(msg), temp); // netsbloxSend would hide the exception, which is what we want to test for
 
                                 netsbloxAddress = temp; // if we get here it was a valid address
                                 System.err.printf("reconnected to target: %s\n", netsbloxAddress);
@@ -1819,19 +3401,39 @@ public class MainActivity extends AppCompatActivity {
                             next_heartbeat = now_time + 30 * 1000; // next heartbeat in 30 seconds
                         }
 
-                        // wait for a message - short duration is so we can see reconnections quickly
-                        // IMPORTANT: short timeout is also important for the sleep no-communications mode (otherwise we might leak one instruction through after arbitrary time).
-                        udpSocket.setSoTimeout(1000);
-                        udpSocket.receive(packet);
-                        if (packet.getLength() == 0) continue;
+                        // send anything that's been queued up since last time
+                        flushOutboundQueue();
+
+                        // ask for missing fragments and drop stale ones
+                        if (System.currentTimeMillis() >= nextFragmentCheck) nextFragmentCheck = fragmentAssembler.poll(System.currentTimeMillis(), fragmentNackSink);
+
+                        // answer sensor reads that were waiting for their sensors to start
+                        if (System.currentTimeMillis() >= nextDeferredCheck) nextDeferredCheck = pollDeferredRequests(System.currentTimeMillis());
+
+                        // grab the next message - if there isn't one, sleep until something happens.
+                        // we're woken up by incoming messages, send space, new outbound messages, reconnect requests, and sensor start/stop.
+                        // IMPORTANT: after waking we loop back to the top, which is important for the sleep no-communications mode (otherwise we might leak one instruction through after arbitrary time).
+                        recvBuffer.clear();
+                        final SocketAddress from = udpChannel.receive(recvBuffer);
+                        if (from == null) {
+                            long wake = Math.min(Math.min(netsbloxAddress == null ? Long.MAX_VALUE : next_heartbeat, nextFragmentCheck), Math.min(nextDeferredCheck, nextFragmentSend));
+                            long timeout = wake == Long.MAX_VALUE ? 0 : Math.max(1, wake - System.currentTimeMillis()); // zero means wait forever
+                            udpSelector.select(timeout);
+                            udpSelector.selectedKeys().clear();
+                            continue;
+                        }
+                        final int len = recvBuffer.position();
+                        if (len == 0) continue;
+                        final long received = System.nanoTime();
+                        metrics.increment(Metrics.RECEIVED);
 
                         // check for things that don't need auth
-                        if (packet.getLength() <= 2 && buf[0] == 'I') {
-                            if (packet.getLength() == 1 || (packet.getLength() == 2 && buf[1] == 1)) { // len 1 is back compat with server - eventually not needed
+                        if (len <= 2 && buf[0] == 'I') {
+                            if (len == 1 || (len == 2 && buf[1] == 1)) { // len 1 is back compat with server - eventually not needed
                                 scheduleToast("Connected to NetsBlox", Toast.LENGTH_SHORT);
                                 continue;
                             }
-                            else if (packet.getLength() == 2 && buf[1] == 87) {
+                            else if (len == 2 && buf[1] == 87) {
                                 scheduleToast("Connection Reset", Toast.LENGTH_SHORT);
                                 new Timer().schedule(new TimerTask() {
                                     @Override
@@ -1844,400 +3446,22 @@ public class MainActivity extends AppCompatActivity {
                         }
 
                         // ignore anything that's invalid or fails to auth
-                        if (packet.getLength() < 9 || fromBEBytes(buf, 1, 8) != getPassword()) continue;
-
-                        final SensorConsumer handleSensor = src -> {
-                            if (packet.getLength() != 9) return; // ignore invalid format
-                            if (src.isSupported()) { // if the sensor is supported, send back all the content
-                                double[] v = src.getData();
-                                ByteBuffer b = ByteBuffer.allocate(1 + v.length * 8).put(buf[0]);
-                                for (double val : v) b.putDouble(val);
-                                netsbloxSend(b.array(), packet.getSocketAddress());
-                            }
-                            // otherwise send back the acknowledgement, but no data
-                            else netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                        };
+                        if (len < 9 || fromBEBytes(buf, 1, 8) != getPassword()) {
+                            metrics.increment(Metrics.AUTH_FAILURES);
+                            continue;
+                        }
 
                         // otherwise do the actual request
-                        switch (buf[0]) {
-                            case 'A': handleSensor.apply(accelerometer); break;
-                            case 'G': handleSensor.apply(gravity); break;
-                            case 'L': handleSensor.apply(linearAcceleration); break;
-                            case 'Y': handleSensor.apply(gyroscope); break;
-                            case 'R': handleSensor.apply(rotationVector); break;
-                            case 'r': handleSensor.apply(gameRotationVector); break;
-                            case 'M': handleSensor.apply(magneticField); break;
-                            case 'm': handleSensor.apply(soundSensor); break;
-                            case 'P': handleSensor.apply(proximity); break;
-                            case 'S': handleSensor.apply(stepCounter); break;
-                            case 'l': handleSensor.apply(light); break;
-                            case 'F': handleSensor.apply(pressure); break;
-                            case 'f': handleSensor.apply(ambientTemperature); break;
-                            case 'K': handleSensor.apply(relativeHumidity); break;
-                            case 'X': handleSensor.apply(location); break;
-                            case 'O': handleSensor.apply(orientationCalculator); break;
-
-                            case 'a': { // authenticate (no-op)
-                                netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'p': { // set sensor update periods
-                                if (packet.getLength() < 9 || (packet.getLength() - 9) % 4 != 0) continue;
-                                long[] vals = new long[(packet.getLength() - 9) / 4];
-                                for (int i = 0; i < vals.length; ++i) vals[i] = intFromBEBytes(buf, 9 + i * 4);
-                                setSensorUpdatePeriods(vals);
-                                netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'u': { // get image
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                IImageLike target = (IImageLike)getCustomControlWithIDWhere(id, c -> c instanceof IImageLike);
-                                if (target == null) netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                else netsbloxSend(new byte[] { buf[0] }, target.getImage(), packet.getSocketAddress());
-                                break;
-                            }
-                            case 'i': { // set image
-                                if (packet.getLength() < 10) continue;
-                                int idlen = (int)buf[9] & 0xff;
-                                if (packet.getLength() < 10 + idlen) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 10, 10 + idlen); // image content is everything after this block
-                                IImageLike target = (IImageLike)getCustomControlWithIDWhere(id, c -> c instanceof IImageLike);
-                                if (target == null) netsbloxSend(new byte[]{ buf[0], 3 }, packet.getSocketAddress());
-                                else {
-                                    Bitmap img = BitmapFactory.decodeByteArray(buf, 10 + idlen, packet.getLength() - (10 + idlen));
-                                    System.err.printf("decoded image: %dx%d\n", img.getWidth(), img.getHeight());
-                                    target.setImage(img, true);
-                                    netsbloxSend(new byte[] { buf[0], 0 }, packet.getSocketAddress());
-                                }
-                                break;
-                            }
-                            case 'H': { // set text
-                                if (packet.getLength() < 10) continue;
-                                int idlen = (int)buf[9] & 0xff;
-                                if (packet.getLength() < 10 + idlen) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 10, 10 + idlen); // text content is everything after this block
-                                ITextLike target = (ITextLike)getCustomControlWithIDWhere(id, c -> c instanceof ITextLike);
-                                if (target == null) netsbloxSend(new byte[] { buf[0], 3 }, packet.getSocketAddress());
-                                else {
-                                    String text = new String(buf, 10 + idlen, packet.getLength() - (10 + idlen), "UTF-8");
-                                    target.setText(text);
-                                    netsbloxSend(new byte[] { buf[0], 0 }, packet.getSocketAddress());
-                                }
-                                break;
-                            }
-                            case 'h': { // get text
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                ITextLike target = (ITextLike)getCustomControlWithIDWhere(id, c -> c instanceof ITextLike);
-                                if (target == null) netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                else {
-                                    byte[] content = target.getText().getBytes("UTF-8");
-                                    netsbloxSend(ByteBuffer.allocate(2 + content.length).put(buf[0]).put((byte)0).put(content).array(), packet.getSocketAddress());
-                                }
-                                break;
-                            }
-                            case 'J': { // get position
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                IPositionLike target = (IPositionLike)getCustomControlWithIDWhere(id, c -> c instanceof IPositionLike);
-                                if (target == null) netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                else {
-                                    float[] vec = target.getPos();
-                                    if (vec == null) netsbloxSend(new byte[] { buf[0], 0 }, packet.getSocketAddress());
-                                    else netsbloxSend(ByteBuffer.allocate(10).put(buf[0]).put((byte)1).putFloat(vec[0]).putFloat(vec[1]).array(), packet.getSocketAddress());
-                                }
-                                break;
-                            }
-                            case 'E': { // get level
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                ILevelLike target = (ILevelLike)getCustomControlWithIDWhere(id, c -> c instanceof ILevelLike);
-                                if (target == null) netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                else netsbloxSend(ByteBuffer.allocate(5).put(buf[0]).putFloat(target.getLevel()).array(), packet.getSocketAddress());
-                                break;
-                            }
-                            case 'e': { // set level
-                                if (packet.getLength() < 13) continue;
-                                float level = floatFromBEBytes(buf, 9);
-                                byte[] id = Arrays.copyOfRange(buf, 13, packet.getLength());
-                                ILevelLike target = (ILevelLike)getCustomControlWithIDWhere(id, c -> c instanceof ILevelLike);
-                                if (target == null) netsbloxSend(new byte[] { buf[0], 3 }, packet.getSocketAddress());
-                                else {
-                                    target.setLevel(level);
-                                    netsbloxSend(new byte[] { buf[0], 0 }, packet.getSocketAddress());
-                                }
-                                break;
-                            }
-                            case 'V': { // is pushed
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                IPushable target = (IPushable)getCustomControlWithIDWhere(id, c -> c instanceof IPushable);
-                                netsbloxSend(new byte[] { buf[0], (byte)(target == null ? 2 : target.isPushed() ? 1 : 0) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'W': { // get toggle state
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                IToggleable target = (IToggleable)getCustomControlWithIDWhere(id, c -> c instanceof IToggleable);
-                                netsbloxSend(new byte[] { buf[0], (byte)(target == null ? 2 : target.getToggleState() ? 1 : 0) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'w': { // set toggle state
-                                if (packet.getLength() < 10) continue;
-                                boolean state = buf[9] != 0;
-                                byte[] id = Arrays.copyOfRange(buf, 10, packet.getLength());
-                                IToggleable target = (IToggleable)getCustomControlWithIDWhere(id, c -> c instanceof IToggleable);
-                                if (target == null) netsbloxSend(new byte[] { buf[0], 3 }, packet.getSocketAddress());
-                                else {
-                                    target.setToggleState(state);
-                                    netsbloxSend(new byte[] { buf[0], 0 }, packet.getSocketAddress());
-                                }
-                                break;
-                            }
-                            case 'C': { // clear custom controls
-                                if (packet.getLength() != 9) continue;
-                                customControls.clear();
-                                redrawCustomControls(false);
-                                netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'c': { // remove specific custom control
-                                if (packet.getLength() < 9) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 9, packet.getLength());
-                                for (int i = 0; i < customControls.size(); ++i) {
-                                    ICustomControl control = customControls.get(i);
-                                    if (Arrays.equals(control.getID(), id)) {
-                                        customControls.remove(i);
-                                        redrawCustomControls(false);
-                                        break;
-                                    }
-                                }
-                                netsbloxSend(new byte[] { buf[0] }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'B': { // add custom button control
-                                if (packet.getLength() < 40) continue;
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                int width = (int)(floatFromBEBytes(buf, 17) / 100 * viewWidth);
-                                int height = (int)(floatFromBEBytes(buf, 21) / 100 * viewHeight);
-                                int color = intFromBEBytes(buf, 25);
-                                int textColor = intFromBEBytes(buf, 29);
-                                float fontSize = floatFromBEBytes(buf, 33);
-                                ButtonStyle style;
-                                switch (buf[37]) {
-                                    case 0: default: style = ButtonStyle.Rect; break;
-                                    case 1: style = ButtonStyle.Ellipse; break;
-                                    case 2: height = width; style = ButtonStyle.Rect; break; // these are just like previous, but make perfect squares/circles based on width only
-                                    case 3: height = width; style = ButtonStyle.Ellipse; break;
-                                }
-                                boolean landscape = buf[38] != 0;
-                                int idlen = (int)buf[39] & 0xff;
-                                if (packet.getLength() < 40 + idlen) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 40, 40 + idlen);
-                                String text = new String(buf, 40 + idlen, packet.getLength() - (40 + idlen), "UTF-8");
-
-                                ICustomControl control = new CustomButton(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        width, height,
-                                        color, textColor, id, text, fontSize, style, landscape);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'j': { // add custom joystick control
-                                if (packet.getLength() < 26) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                float width = floatFromBEBytes(buf, 17);
-                                int color = intFromBEBytes(buf, 21);
-                                boolean landscape = buf[25] != 0;
-                                byte[] id = Arrays.copyOfRange(buf, 26, packet.getLength());
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomJoystick(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        (int)(width / 100 * viewWidth),
-                                        color, id, landscape);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'N': { // add custom touchpad
-                                if (packet.getLength() < 31) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                float width = floatFromBEBytes(buf, 17);
-                                float height = floatFromBEBytes(buf, 21);
-                                int color = intFromBEBytes(buf, 25);
-                                if (buf[29] == 1) {
-                                    height = width;
-                                }
-                                boolean landscape = buf[30] != 0;
-                                byte[] id = Arrays.copyOfRange(buf, 31, packet.getLength());
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomTouchpad(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        (int)(width / 100 * viewWidth), (int)(height / 100 * viewHeight),
-                                        color, id, landscape);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'D': { // add custom slider
-                                if (packet.getLength() < 32) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                float width = floatFromBEBytes(buf, 17);
-                                int color = intFromBEBytes(buf, 21);
-                                float level = floatFromBEBytes(buf, 25);
-                                SliderStyle style;
-                                switch (buf[29]) {
-                                    default: case 0: style = SliderStyle.Slider; break;
-                                    case 1: style = SliderStyle.Progress; break;
-                                }
-                                boolean landscape = buf[30] != 0;
-                                boolean readonly = buf[31] != 0;
-                                byte[] id = Arrays.copyOfRange(buf, 32, packet.getLength());
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomSlider(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        (int)(width / 100 * viewWidth),
-                                        color, level, id, style, landscape, readonly);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'U': { // add custom image display
-                                if (packet.getLength() < 28) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                float width = floatFromBEBytes(buf, 17);
-                                float height = floatFromBEBytes(buf, 21);
-                                boolean readonly = buf[25] != 0;
-                                boolean landscape = buf[26] != 0;
-                                FitType fit = parseFitType(buf[27]);
-                                byte[] id = Arrays.copyOfRange(buf, 28, packet.getLength());
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomImageBox(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        (int)(width / 100 * viewWidth), (int)(height / 100 * viewHeight),
-                                        id, getDefaultImage(), readonly, landscape, fit);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'T': { // add custom text field control
-                                if (packet.getLength() < 41) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                float width = floatFromBEBytes(buf, 17);
-                                float height = floatFromBEBytes(buf, 21);
-                                int color = intFromBEBytes(buf, 25);
-                                int textColor = intFromBEBytes(buf, 29);
-                                float fontSize = floatFromBEBytes(buf, 33);
-                                Paint.Align align = parseTextAlign(buf[37]);
-                                boolean readonly = buf[38] != 0;
-                                boolean landscape = buf[39] != 0;
-                                int idlen = (int)buf[40] & 0xff;
-                                if (packet.getLength() < 41 + idlen) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 41, 41 + idlen);
-                                String text = new String(buf, 41 + idlen, packet.getLength() - (41 + idlen), "UTF-8");
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomTextField(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        (int)(width / 100 * viewWidth), (int)(height / 100 * viewHeight),
-                                        color, textColor, id, text, readonly, fontSize, align, landscape);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'g': { // add custom label control
-                                if (packet.getLength() < 28) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                int textColor = intFromBEBytes(buf, 17);
-                                float fontSize = floatFromBEBytes(buf, 21);
-                                Paint.Align align = parseTextAlign(buf[25]);
-                                boolean landscape = buf[26] != 0;
-                                int idlen = (int)buf[27] & 0xff;
-                                if (packet.getLength() < 28 + idlen) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 28, 28 + idlen);
-                                String text = new String(buf, 28 + idlen, packet.getLength() - (28 + idlen), "UTF-8");
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomLabel(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        textColor, id, text, fontSize, align, landscape);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'Z': { // add custom checkbox control
-                                if (packet.getLength() < 34) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                int checkColor = intFromBEBytes(buf, 17);
-                                int textColor = intFromBEBytes(buf, 21);
-                                float fontSize = floatFromBEBytes(buf, 25);
-                                boolean checked = buf[29] != 0;
-                                CheckboxStyle style;
-                                switch (buf[30]) {
-                                    case 0: default: style = CheckboxStyle.ToggleSwitch; break;
-                                    case 1: style = CheckboxStyle.CheckBox; break;
-                                }
-                                boolean landscape = buf[31] != 0;
-                                boolean readonly = buf[32] != 0;
-                                int idlen = (int)buf[33] & 0xff;
-                                if (packet.getLength() < 34 + idlen) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 34, 34 + idlen);
-                                String text = new String(buf, 34 + idlen, packet.getLength() - (34 + idlen), "UTF-8");
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomCheckbox(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        checkColor, textColor, checked, id, text, style, fontSize, landscape, readonly);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
-                            case 'y': { // add custom radiobutton control
-                                if (packet.getLength() < 33) continue;
-                                float x = floatFromBEBytes(buf, 9);
-                                float y = floatFromBEBytes(buf, 13);
-                                int checkColor = intFromBEBytes(buf, 17);
-                                int textColor = intFromBEBytes(buf, 21);
-                                float fontSize = floatFromBEBytes(buf, 25);
-                                boolean state = buf[29] != 0;
-                                boolean landscape = buf[30] != 0;
-                                boolean readonly = buf[31] != 0;
-                                int idlen = (int)buf[32] & 0xff;
-                                if (packet.getLength() < 33 + idlen + 1) continue;
-                                byte[] id = Arrays.copyOfRange(buf, 33, 33 + idlen);
-                                int grouplen = (int)buf[33 + idlen] & 0xff;
-                                if (packet.getLength() < 33 + idlen + 1 + grouplen) continue;
-                                byte[] group = Arrays.copyOfRange(buf, 33 + idlen + 1, 33 + idlen + 1 + grouplen);
-                                String text = new String(buf, 33 + idlen + 1 + grouplen, packet.getLength() - (33 + idlen + 1 + grouplen), "UTF-8");
-
-                                ImageView view = findViewById(R.id.controlPanel);
-                                int viewWidth = view.getWidth(), viewHeight = view.getHeight();
-                                ICustomControl control = new CustomRadioButton(
-                                        (int)(x / 100 * viewWidth), (int)(y / 100 * viewHeight),
-                                        checkColor, textColor, state, id, group, text, fontSize, landscape, readonly);
-                                netsbloxSend(new byte[] { buf[0], tryAddCustomControl(control) }, packet.getSocketAddress());
-                                break;
-                            }
+                        request.reset(len, from);
+                        try {
+                            if (!requestDispatcher.dispatch(request)) metrics.increment(Metrics.UNKNOWN_OPCODES);
                         }
+                        catch (Exception ex) {
+                            metrics.increment(Metrics.HANDLER_ERRORS);
+                            throw ex;
+                        }
+                        finally { metrics.request(buf[0]).recordSince(received); }
                     }
-                    catch (SocketTimeoutException ignored) {} // this is fine - just means we hit the timeout we requested
                     catch (Exception ex) {
                         System.err.printf("udp network thread exception: (addr %s): %s\n", netsbloxAddress, ex);
                         try { Thread.sleep(100); } catch (Exception ignored) {} // do this so a loop of failures doesn't burn up network resources and power
@@ -2246,37 +3470,25 @@ public class MainActivity extends AppCompatActivity {
             });
             udpServerThread.start();
         }
-        if (pipeThread == null) {
-            pipeThread = new Thread(() -> {
-                while (true) {
-                    try {
-                        synchronized (pipeQueue) {
-                            for (DatagramPacket packet : pipeQueue) {
-                                try { udpSocket.send(packet); } // ignore errors here so we can clear out the pipe even on failure
-                                catch (Exception ignored) {}
-                            }
-                            pipeQueue.clear();
-                            pipeQueue.wait();
-                        }
-                    }
-                    catch (Exception ignored) {}
-                }
-            });
-            pipeThread.start();
-        }
         if (sensorStreamThread == null) {
             sensorStreamThread = new Thread(() -> {
                 int timestamp = 0;
+                int subscriptionTimestamp = 0;
                 while (true) {
                     try {
-                        // ensure we have proper timing constraints
+                        // ensure we have proper timing constraints (wait for whichever of the global period or a subscription is due first)
+                        boolean fullFrameDue;
+                        int dueSensors, activeSensors;
                         synchronized (sensorUpdateMutex) {
-                            long now;
-                            while ((now = System.currentTimeMillis()) < nextSensorUpdate) {
-                                if (nextSensorUpdate == Long.MAX_VALUE) sensorUpdateMutex.wait(); // if it's the 'infinity' value, just wait forever
-                                else sensorUpdateMutex.wait(nextSensorUpdate - now); // otherwise wait long enough to reach the target
+                            long now, next;
+                            while ((now = System.currentTimeMillis()) < (next = Math.min(nextSensorUpdate, sensorScheduler.nextDue()))) {
+                                if (next == Long.MAX_VALUE) sensorUpdateMutex.wait(); // if it's the 'infinity' value, just wait forever
+                                else sensorUpdateMutex.wait(next - now); // otherwise wait long enough to reach the target
                             }
-                            nextSensorUpdate = sensorUpdatePeriod == Long.MAX_VALUE ? Long.MAX_VALUE : now + sensorUpdatePeriod; // if period is inf, next update is inf as well
+                            fullFrameDue = now >= nextSensorUpdate;
+                            if (fullFrameDue) nextSensorUpdate = sensorUpdatePeriod == Long.MAX_VALUE ? Long.MAX_VALUE : now + sensorUpdatePeriod; // if period is inf, next update is inf as well
+                            dueSensors = sensorScheduler.pollDue(now);
+                            activeSensors = (sensorUpdatePeriod == Long.MAX_VALUE ? 0 : (1 << LEGACY_FRAME_SENSOR_COUNT) - 1) | sensorScheduler.getSubscribed();
                         }
 
                         // we need to check the sensor shutdown flag before sending the message
@@ -2287,8 +3499,31 @@ public class MainActivity extends AppCompatActivity {
                             }
                         }
 
-                        // finally, pack up the current data and send it
-                        netsbloxSend(getSensorPacket(new byte[] { 'Q' }, timestamp++), netsbloxAddress);
+                        // finally, pack up the current data and send it (in place - no per-frame allocations)
+                        SocketAddress dest = netsbloxAddress;
+                        if (compactStreamEnabled) { // everything that's due goes out in a single compact frame (if anything changed)
+                            int candidates = (fullFrameDue ? (1 << LEGACY_FRAME_SENSOR_COUNT) - 1 : 0) | dueSensors;
+                            ByteBuffer frame = encodeCompactPacket(timestamp++, candidates, activeSensors);
+                            if (frame != null && dest != null && udpChannel.send(frame, dest) != 0) { // a full send buffer drops the frame - then it wasn't sent as far as the encoder is concerned
+                                compactStreamEncoder.commit();
+                                metrics.increment(Metrics.STREAM_FRAMES);
+                            }
+                            continue;
+                        }
+                        if (fullFrameDue) {
+                            ByteBuffer frame = encodeSensorPacket(timestamp++);
+                            if (dest != null) {
+                                udpChannel.send(frame, dest); // channels are thread safe - if the send buffer is full the frame is just dropped
+                                metrics.increment(Metrics.STREAM_FRAMES);
+                            }
+                        }
+                        if (dueSensors != 0) {
+                            ByteBuffer frame = encodeSubscriptionPacket(subscriptionTimestamp++, dueSensors);
+                            if (dest != null) {
+                                udpChannel.send(frame, dest);
+                                metrics.increment(Metrics.STREAM_FRAMES);
+                            }
+                        }
                     }
                     catch (Exception ignored) { }
                 }
@@ -2296,29 +3531,41 @@ public class MainActivity extends AppCompatActivity {
             sensorStreamThread.start();
         }
     }
-    private byte[] getSensorPacket(byte[] prefix, int timestamp) {
-        try {
-            ByteArrayOutputStream raw = new ByteArrayOutputStream();
-            try (DataOutputStream writer = new DataOutputStream(raw)) {
-                BasicSensor[] sensors = {
-                        accelerometer, gravity, linearAcceleration, gyroscope, rotationVector, gameRotationVector,
-                        magneticField, soundSensor, proximity, stepCounter, light, location, orientationCalculator,
-                        pressure, ambientTemperature, relativeHumidity,
-                };
-                writer.write(prefix);
-                writer.writeInt(timestamp);
-                for (BasicSensor sensor : sensors) {
-                    if (sensor.isSupported()) {
-                        double[] vals = sensor.getData();
-                        writer.write((byte)vals.length);
-                        for (double v : vals) writer.writeDouble(v);
-                    }
-                    else writer.write((byte)0);
-                }
-            }
-            return raw.toByteArray();
+    private ByteBuffer encodeSensorPacket(int timestamp) {
+        sensorPacketEncoder.begin((byte)'Q').putInt(timestamp);
+        for (int i = 0; i < LEGACY_FRAME_SENSOR_COUNT; ++i) {
+            BasicSensor sensor = streamSensors[i];
+            if (sensor.isSupported()) sensorPacketEncoder.putVector(readSensor(streamSensorScratch, i, sensor));
+            else sensorPacketEncoder.putByte(0);
+        }
+        return sensorPacketEncoder.finish();
+    }
+    private static CompactStreamEncoder createCompactStreamEncoder() {
+        CompactStreamEncoder res = new CompactStreamEncoder(STREAM_SENSOR_COUNT, DEFAULT_KEYFRAME_INTERVAL);
+        for (int i = 0; i < STREAM_SENSOR_COUNT; ++i) res.configure(i, CompactStreamEncoder.ENCODING_F32, 0);
+        res.configure(LOCATION_STREAM_INDEX, CompactStreamEncoder.ENCODING_F64, 0);
+        return res;
+    }
+    // returns null if none of the candidate sensors changed enough to be worth sending - call compactStreamEncoder.commit() once it's sent
+    private ByteBuffer encodeCompactPacket(int timestamp, int candidates, int active) {
+        int read = compactStreamEncoder.prepare(candidates, active); // keyframes cover every active sensor, due or not
+        for (int i = 0; i < streamSensors.length; ++i) {
+            BasicSensor sensor = streamSensors[i];
+            if ((read & (1 << i)) == 0) continue; // the encoder only looks at these
+            compactStreamValues[i] = sensor.isSupported() ? readSensor(streamSensorScratch, i, sensor) : null;
+        }
+        return compactStreamEncoder.encode(sensorPacketEncoder, timestamp, compactStreamValues);
+    }
+    // like a 'Q' frame, but only has the sensors in the mask (bit i is streamSensors[i]), which is sent first so the server knows what's present
+    private ByteBuffer encodeSubscriptionPacket(int timestamp, int mask) {
+        sensorPacketEncoder.begin((byte)'q').putInt(timestamp).putInt(mask);
+        for (int i = 0; i < streamSensors.length; ++i) {
+            if ((mask & (1 << i)) == 0) continue;
+            BasicSensor sensor = streamSensors[i];
+            if (sensor.isSupported()) sensorPacketEncoder.putVector(readSensor(streamSensorScratch, i, sensor));
+            else sensorPacketEncoder.putByte(0);
         }
-        catch (Exception ignored) { return new byte[0]; }
+        return sensorPacketEncoder.finish();
     }
     private byte[] netsbloxFormat(byte[] content) {
         byte[] expanded = new byte[content.length + 10];
@@ -2327,44 +3574,143 @@ public class MainActivity extends AppCompatActivity {
         for (int i = 0; i < content.length; ++i) expanded[10 + i] = content[i];
         return expanded;
     }
+    private static OutboundQueue.Policy getSendPolicy(byte opcode) {
+        switch (opcode) {
+            case 'Q': case 'q': case 'k': case 'n': return OutboundQueue.Policy.DROP_OLDEST; // sensor frames and position events are superseded by newer ones
+            default: return OutboundQueue.Policy.NEVER_DROP;             // everything else is a request ack or a one-off event
+        }
+    }
     private void netsbloxSend(byte[] content, SocketAddress dest) {
-        if (udpSocket != null && dest != null) {
-            byte[] expanded = netsbloxFormat(content);
-            DatagramPacket packet = new DatagramPacket(expanded, expanded.length, dest);
-            synchronized (pipeQueue) {
-                pipeQueue.add(packet);
-                pipeQueue.notify();
+        if (content.length > getFragmentThreshold()) {
+            netsbloxSendFragmented(content, 0, content.length, dest);
+            return;
+        }
+        if (udpChannel != null && dest != null) {
+            outboundQueue.offer(new OutboundPacket(ByteBuffer.wrap(netsbloxFormat(content)), dest), getSendPolicy(content[0]));
+            udpSelector.wakeup();
+        }
+    }
+    // allocates an exactly-sized packet and writes the header and opcode - the caller fills in the rest and passes it to netsbloxSend()
+    private ByteBuffer netsbloxAllocate(byte opcode, int contentSize) {
+        return ByteBuffer.allocate(PacketEncoder.HEADER_SIZE + 1 + contentSize).put(macAddress, 0, 6).putInt(0).put(opcode);
+    }
+    private void netsbloxSend(ByteBuffer packet, SocketAddress dest) {
+        if (udpChannel != null && dest != null) {
+            packet.flip();
+            int contentSize = packet.limit() - PacketEncoder.HEADER_SIZE;
+            if (contentSize > getFragmentThreshold()) {
+                netsbloxSendFragmented(packet.array(), packet.arrayOffset() + PacketEncoder.HEADER_SIZE, contentSize, dest);
+                return;
             }
+            outboundQueue.offer(new OutboundPacket(packet, dest), getSendPolicy(packet.get(PacketEncoder.HEADER_SIZE)));
+            udpSelector.wakeup();
         }
     }
-    private void netsbloxSend(byte[] prefix, Bitmap img, SocketAddress dest) throws IOException {
-        Bitmap scaled = ScaleImageForUDP(img);
-        ByteArrayOutputStream temp = new ByteArrayOutputStream();
-        temp.write(prefix);
-        scaled.compress(Bitmap.CompressFormat.JPEG, 90, temp);
+    private int getFragmentThreshold() {
+        return peerFragments ? MAX_DATAGRAM_SIZE - PacketEncoder.HEADER_SIZE : MAX_UNFRAGMENTED_SIZE;
+    }
+    private void netsbloxSendFragmented(byte[] content, int offset, int length, SocketAddress dest) {
+        if (udpChannel == null || dest == null || fragmentStreams.size() >= MAX_FRAGMENT_STREAMS) return;
+        int id = fragmentSender.add(content, offset, length, System.currentTimeMillis());
+        if (id == 0) return; // too big to even fragment
+        fragmentStreams.add(new FragmentStream(id, content, offset, length, fragmentSender.getFragmentCount(length), dest));
+        udpSelector.wakeup();
+    }
+    private void sendFragment(int id, int index, int length, SocketAddress dest) {
+        ByteBuffer b = netsbloxAllocate((byte)'+', fragmentSender.getFragmentSize(length, index));
+        if (fragmentSender.write(id, index, b)) netsbloxSend(b, dest);
+    }
 
-        byte[] content = temp.toByteArray();
-        System.err.printf("image content size: %d\n", content.length);
-        netsbloxSend(content, dest);
+    // called only from udpServerThread - sends as much of the outbound queue as the socket will currently accept
+    private void flushOutboundQueue() {
+        for (;;) {
+            OutboundPacket packet = pendingOutbound != null ? pendingOutbound : outboundQueue.poll();
+            pendingOutbound = null;
+            if (packet == null) break;
 
-        if (scaled != img) scaled.recycle(); // if it was a new object, recycle it (no longer needed)
+            try {
+                if (udpChannel.send(packet.data, packet.dest) == 0) {
+                    pendingOutbound = packet; // no room - hold on to it and wake us up when there is
+                    udpKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outboundQueue.markSent();
+                metrics.outboundWait.recordSince(packet.queued);
+            }
+            catch (Exception ignored) {} // ignore errors here so we can clear out the queue even on failure
+        }
+        if (!flushFragmentStreams()) {
+            udpKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        udpKey.interestOps(SelectionKey.OP_READ);
+    }
+    // called only from udpServerThread - sends the next fragments of pending fragmented messages, up to the pacing window.
+    // returns false if the socket buffer filled up (the fragment that didn't fit is sent again next time)
+    private boolean flushFragmentStreams() {
+        long now = System.currentTimeMillis();
+        if (now - fragmentWindowStart >= FRAGMENT_PACE_INTERVAL) {
+            fragmentWindowStart = now;
+            fragmentWindowUsed = 0;
+        }
+        nextFragmentSend = Long.MAX_VALUE;
+        for (FragmentStream stream; (stream = fragmentStreams.peek()) != null; ) {
+            if (stream.next >= stream.count) {
+                fragmentStreams.poll();
+                continue;
+            }
+            if (fragmentWindowUsed >= FRAGMENT_WINDOW) {
+                nextFragmentSend = fragmentWindowStart + FRAGMENT_PACE_INTERVAL;
+                return true;
+            }
+
+            ByteBuffer b = fragmentSendBuffer;
+            b.clear();
+            b.put(macAddress, 0, 6).putInt(0).put((byte)'+');
+            fragmentSender.write(stream.id, stream.data, stream.offset, stream.length, stream.next, b);
+            b.flip();
+            try {
+                if (udpChannel.send(b, stream.dest) == 0) return false;
+            }
+            catch (Exception ignored) {} // same as the queue - skip it rather than get stuck (the peer can nack it)
+            ++stream.next;
+            ++fragmentWindowUsed;
+        }
+        return true;
     }
+    // sends the target's image after the prefix (which starts with the opcode), encoded to fit the image byte budget (see ImageEncoder).
+    // the encoding is cached until the image changes, so polling an unchanged image is just a copy - only called from udpServerThread
+    private void netsbloxSend(byte[] prefix, IImageLike target, SocketAddress dest) throws Exception {
+        int budget = Math.min(imageByteBudget, (peerFragments ? MAX_REASSEMBLED_SIZE : MAX_UNFRAGMENTED_SIZE) - prefix.length); // without fragments, it has to fit in one datagram
+        long generation = target.getGeneration(); // read before the image, so a concurrent change can only make cached bytes newer than their generation (never stale)
+        EncodedImageCache.Entry cached = encodedImageCache.get(target, generation, budget);
+        if (cached != null) {
+            metrics.increment(Metrics.IMAGE_CACHE_HITS);
+            netsbloxSend(prefix, cached.data, cached.data.length, dest);
+            return;
+        }
 
-    // given a large bitmap, scales it down (maintaining aspect ratio) so that it is small enough to send over UDP
-    private Bitmap ScaleImageForUDP(Bitmap src) {
-        final int MAX_BYTES = 8 * 64 * 1024; // due to using jpeg compression, we can actually afford to be over the maximum packet size
-        int w = src.getWidth(), h = src.getHeight();
-        int rawBytes = 4 * w * h;
-        if (rawBytes <= MAX_BYTES) return src;
-        float mult = (float)Math.sqrt((double)MAX_BYTES / (double)rawBytes);
-        int w2 = (int)(w * mult), h2 = (int)(h * mult);
+        ImageEncoder.Result res;
+        try { res = imageEncoder.encode(target.pinImage(), budget); }
+        finally { target.unpinImage(); }
+        synchronized (customControlIndex) { // it may have been removed while we were encoding - then the entry would never be dropped
+            if (customControlIndex.isIndexed(target)) encodedImageCache.put(target, generation, budget, res.data, res.length, res.format);
+        }
 
-        System.err.printf("resized image: %dx%d -> %dx%d (%d argb8 bytes)\n", w, h, w2, h2, 4 * w2 * h2);
+        metrics.imageEncode.record(res.encodeNanos / 1000);
+        metrics.increment(Metrics.IMAGES_ENCODED);
+        metrics.add(Metrics.IMAGE_BYTES, res.length);
+        metrics.add(Metrics.IMAGE_ATTEMPTS, res.attempts);
+        metrics.increment(Metrics.IMAGE_FORMATS + res.format);
+        System.err.printf("encoded image: %dx%d %s q%d, %d bytes in %.1f ms (%d tries)\n", res.width, res.height, ImageEncoder.FORMAT_NAMES[res.format], res.quality, res.length, res.encodeNanos / 1e6, res.attempts);
 
-        Bitmap res = Bitmap.createBitmap(w2, h2, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(res);
-        canvas.drawBitmap(src, new Rect(0, 0, w, h), new Rect(0, 0, w2, h2), new Paint());
-        return res;
+        netsbloxSend(prefix, res.data, res.length, dest);
+    }
+    // sends prefix (which starts with the opcode) followed by data[0..length), copied straight into the packet
+    private void netsbloxSend(byte[] prefix, byte[] data, int length, SocketAddress dest) {
+        ByteBuffer b = netsbloxAllocate(prefix[0], prefix.length - 1 + length);
+        b.put(prefix, 1, prefix.length - 1).put(data, 0, length);
+        netsbloxSend(b, dest);
     }
 
     @Override
@@ -2377,11 +3723,26 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        controlPanel = findViewById(R.id.controlPanel);
+        controlPanel.setDrawTimes(metrics.redraw);
         AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO); // night mode can make custom controls have black on black and be unreadable
 
         backgroundRunner = new BackgroundRunner();
 
+        DrawerLayout drawer = findViewById(R.id.drawerLayout);
+        drawer.addDrawerListener(new DrawerLayout.SimpleDrawerListener() {
+            @Override
+            public void onDrawerOpened(View drawerView) {
+                handler.removeCallbacks(updateStatsRunnable);
+                handler.post(updateStatsRunnable);
+            }
+            @Override
+            public void onDrawerClosed(View drawerView) {
+                handler.removeCallbacks(updateStatsRunnable); // nobody is looking
+            }
+        });
         openDrawerButton(null); // start with menu open
+        handler.post(updateStatsRunnable); // opening programmatically may not notify the listener until the animation finishes
 
         List<String> failedPermissions = new ArrayList<>();
         for (PermissionRequest r : getRequestedPermissions()) {
@@ -2410,9 +3771,20 @@ public class MainActivity extends AppCompatActivity {
         super.onDestroy();
         System.err.println("destroying");
 
-        DatagramSocket sock = udpSocket;
-        if (sock != null) sock.close(); // close this so we can reuse the port
-        udpSocket = null;
+        DatagramChannel channel = udpChannel;
+        if (channel != null) {
+            try { channel.close(); } // close this so we can reuse the port
+            catch (Exception ignored) {}
+        }
+        udpChannel = null;
+
+        // nothing can be delivered once the looper is gone, so unregister everything before shutting it down
+        if (sensorThread != null) {
+            for (SensorInfo sensor : hardwareSensors) sensor.stop();
+            location.stop();
+            sensorThread.quit();
+        }
+        if (imageThread != null) imageThread.quit();
     }
 
     private boolean canRunInBackground() {
@@ -2427,60 +3799,23 @@ public class MainActivity extends AppCompatActivity {
             sensorsRunning[0] = true;
             sensorsRunning.notifyAll(); // do this to wake up any threads that are suspended in the background
         }
+        if (udpSelector != null) udpSelector.wakeup();
 
-        // motion sensors
-        accelerometer.start();
-        gravity.start();
-        gyroscope.start();
-        linearAcceleration.start();
-        rotationVector.start();
-        stepCounter.start();
-
-        // position sensors
-        gameRotationVector.start();
-        geomagneticRotationVector.start();
-        magneticField.start();
-        proximity.start();
-
-        // environment sensors
-        ambientTemperature.start();
-        light.start();
-        pressure.start();
-        relativeHumidity.start();
-
-        // misc sensors
-        soundSensor.start(this);
-        location.start();
+        applySensorDemand(); // only the sensors that are actually in use are started
     }
     private void stopSensors() {
         synchronized (sensorsRunning) {
             if (!sensorsRunning[0]) return;
             sensorsRunning[0] = false;
         }
+        if (udpSelector != null) udpSelector.wakeup(); // wake up the network thread so it goes to sleep
 
-        // motion sensors
-        accelerometer.stop();
-        gravity.stop();
-        gyroscope.stop();
-        linearAcceleration.stop();
-        rotationVector.stop();
-        stepCounter.stop();
-
-        // position sensors
-        gameRotationVector.stop();
-        geomagneticRotationVector.stop();
-        magneticField.stop();
-        proximity.stop();
-
-        // environment sensors
-        ambientTemperature.stop();
-        light.stop();
-        pressure.stop();
-        relativeHumidity.stop();
+        applySensorDemand();
+    }
 
-        // misc sensors
-        soundSensor.stop();
-        location.stop();
+    // background mode trades latency for power - hardware sensors batch their events instead of waking us for each one
+    private void setSensorBatching(boolean batching) {
+        for (SensorInfo sensor : hardwareSensors) sensor.setBatching(batching);
     }
 
     private SharedPreferences _prefs;
@@ -2555,7 +3890,14 @@ public class MainActivity extends AppCompatActivity {
 
         // --------------------------------------------------
 
+        imageThread = new HandlerThread("ImageWork", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        imageThread.start();
+        imageHandler = new Handler(imageThread.getLooper());
+
         sensorManager = (SensorManager)getSystemService(Context.SENSOR_SERVICE);
+        sensorThread = new HandlerThread("SensorCallbacks", android.os.Process.THREAD_PRIORITY_DISPLAY); // same priority as the ui thread - we don't want to lose out to the network threads
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
 
         // motion sensors
         accelerometer = new SensorInfo(sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), 3);
@@ -2577,31 +3919,49 @@ public class MainActivity extends AppCompatActivity {
         pressure = new SensorInfo(sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE), 1, 0.1);
         relativeHumidity = new SensorInfo(sensorManager.getDefaultSensor(Sensor.TYPE_RELATIVE_HUMIDITY), 1);
 
+        hardwareSensors = new SensorInfo[] {
+                accelerometer, gravity, gyroscope, linearAcceleration, rotationVector, stepCounter,
+                gameRotationVector, geomagneticRotationVector, magneticField, proximity,
+                ambientTemperature, light, pressure, relativeHumidity,
+        };
+
         // misc sensors
-        orientationCalculator = new OrientationCalculator(accelerometer, magneticField);
-        location = new LocationSensor(this);
+        orientationCalculator = new OrientationCalculator(accelerometer, magneticField, gyroscope);
+        location = new LocationSensor(this, sensorThread.getLooper());
         soundSensor = new SoundSensor();
+        spectrumSensor = new SpectrumSensor(soundSensor);
+
+        streamSensors = new BasicSensor[] {
+                accelerometer, gravity, linearAcceleration, gyroscope, rotationVector, gameRotationVector,
+                magneticField, soundSensor, proximity, stepCounter, light, location, orientationCalculator,
+                pressure, ambientTemperature, relativeHumidity,
+                spectrumSensor, // everything after here isn't in 'Q' frames
+                soundSensor.getLevels(),
+        };
+        List<BasicSensor> streamOrder = Arrays.asList(streamSensors);
+        streamSensorDependencies = new int[streamSensors.length];
+        for (int i = 0; i < streamSensors.length; ++i) streamSensorDependencies[i] = 1 << i;
+        streamSensorDependencies[streamOrder.indexOf(orientationCalculator)] |= (1 << streamOrder.indexOf(accelerometer)) | (1 << streamOrder.indexOf(magneticField)) | (1 << streamOrder.indexOf(gyroscope));
+        streamSensorDependencies[streamOrder.indexOf(spectrumSensor)] |= 1 << streamOrder.indexOf(soundSensor);
+        streamSensorDependencies[streamOrder.indexOf(soundSensor.getLevels())] |= 1 << streamOrder.indexOf(soundSensor);
+
+        streamSensorScratch = new double[streamSensors.length][];
+        requestSensorScratch = new double[streamSensors.length][];
+        for (int i = 0; i < streamSensors.length; ++i) {
+            streamSensorScratch[i] = new double[streamSensors[i].getDimensions()];
+            requestSensorScratch[i] = new double[streamSensors[i].getDimensions()];
+        }
+
+        registerRequestHandlers();
 
         // --------------------------------------------------
 
         startSensors();
+        handler.postDelayed(expireSensorDemandRunnable, SENSOR_DEMAND_CHECK_INTERVAL);
 
         // --------------------------------------------------
 
-        ImageView controlsView = findViewById(R.id.controlPanel);
-        controlsView.setOnTouchListener((v, e) -> handleCustomControlOnTouch(v, e));
-
-        // repeat canvas redraw until first success (we need to wait for control constraints to resolve to get size)
-        new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    if (redrawCustomControls(true)) return;
-                }
-                catch (Exception ignore) {}
-                handler.postDelayed(this, 100);
-            }
-        }.run();
+        controlPanel.setOnTouchListener((v, e) -> handleCustomControlOnTouch(v, e));
 
         // --------------------------------------------------
 
@@ -2613,19 +3973,26 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         System.err.println("resuming");
+        panelVisible = true;
 
         if (postInitializationComplete) {
             // stop background running - if it wasn't running, restart the sensors
-            if (!backgroundRunner.stop()) startSensors();
+            if (backgroundRunner.stop()) setSensorBatching(false);
+            else startSensors();
         }
     }
     @Override
     protected void onPause() {
         super.onPause();
         System.err.println("pausing");
+        panelVisible = false;
+        if (bitmapPool.isOverBudget()) scheduleTrimImages(); // everything counts as off screen now
 
         if (postInitializationComplete) {
-            if (canRunInBackground()) backgroundRunner.start();
+            if (canRunInBackground()) {
+                backgroundRunner.start();
+                setSensorBatching(true);
+            }
             else stopSensors();
         }
     }
@@ -2636,27 +4003,7 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private Bitmap rotateImage(Bitmap raw, float degrees) {
-        Matrix matrix = new Matrix();
-        matrix.postRotate(degrees);
-        Bitmap res = Bitmap.createBitmap(raw, 0, 0, raw.getWidth(), raw.getHeight(), matrix, true);
-        raw.recycle();
-        return res;
-    }
-    private Uri imageActivityUri = null;
     private String imageActivityCorrectedPath = null;
-    private Bitmap grabResultImage() throws Exception {
-        ExifInterface exif = new ExifInterface(imageActivityCorrectedPath);
-        int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-        Bitmap raw = MediaStore.Images.Media.getBitmap(this.getContentResolver(), imageActivityUri);
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_ROTATE_90: return rotateImage(raw, 90);
-            case ExifInterface.ORIENTATION_ROTATE_180: return rotateImage(raw, 180);
-            case ExifInterface.ORIENTATION_ROTATE_270: return rotateImage(raw, 270);
-            default: return raw;
-        }
-    }
-
     private IImageLike cameraImageDest = null;
     private void requestImageFor(IImageLike target) {
         // only do this if we have a camera and we have the necessary permissions
@@ -2679,7 +4026,6 @@ public class MainActivity extends AppCompatActivity {
                         catch (Exception ignored) {}
                     }
                     imageActivityCorrectedPath = file.getAbsolutePath();
-                    imageActivityUri = fileUri;
 
                     startActivityForResult(intent, CAMERA_REQUEST_CODE);
                 }
@@ -2696,8 +4042,8 @@ public class MainActivity extends AppCompatActivity {
 
         if (requestCode == CAMERA_REQUEST_CODE) {
             try {
-                Bitmap img = grabResultImage();
                 if (cameraImageDest != null) {
+                    Bitmap img = bitmapDecoder.decode(imageActivityCorrectedPath, cameraImageDest.getDisplayWidth(), cameraImageDest.getDisplayHeight(), cameraImageDest.coversDisplay());
                     cameraImageDest.setImage(img, true);
                     byte[] id = cameraImageDest.getID();
                     if (netsbloxAddress != null) netsbloxSend(ByteBuffer.allocate(1 + id.length).put((byte)'b').put(id).array(), netsbloxAddress);
@@ -0,0 +1,147 @@
+package org.netsblox.phoneiot;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// lock-free counters and fixed-bucket latency histograms - recording is a few atomic adds (no allocations, no locks), so it's safe on any hot path.
+// readers see each value atomically, but not the whole set at once (good enough for diagnostics).
+final class Metrics {
+    // bucket upper bounds (microseconds) - anything above the last goes in an extra overflow bucket
+    static final long[] BUCKET_BOUNDS_US = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 1000000 };
+    static final int BUCKET_COUNT = BUCKET_BOUNDS_US.length + 1;
+
+    static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong sum = new AtomicLong(0);
+        private final AtomicLong max = new AtomicLong(0);
+
+        void record(long micros) {
+            if (micros < 0) micros = 0;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_US.length && micros > BUCKET_BOUNDS_US[bucket]) ++bucket;
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            for (long m; micros > (m = max.get()) && !max.compareAndSet(m, micros); ) {}
+        }
+        void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        long getCount() { return count.get(); }
+        long getSum() { return sum.get(); }
+        long getMax() { return max.get(); }
+        long getBucket(int i) { return buckets.get(i); }
+
+        // upper bound (us) of the bucket holding the given quantile (0 to 1) - the overflow bucket reports the max
+        long getQuantile(double q) {
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) total += buckets.get(i);
+            if (total == 0) return 0;
+            long target = Math.max(1, (long)Math.ceil(q * total)), seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_US.length; ++i) {
+                if ((seen += buckets.get(i)) >= target) return Math.min(BUCKET_BOUNDS_US[i], getMax());
+            }
+            return getMax();
+        }
+
+        static final int ENCODED_SIZE = 8 + 8 + 8 + 4 * BUCKET_COUNT;
+        // i64 count, i64 sum (us), i64 max (us), then i32 count per bucket
+        void encode(ByteBuffer out) {
+            out.putLong(count.get()).putLong(sum.get()).putLong(max.get());
+            for (int i = 0; i < BUCKET_COUNT; ++i) out.putInt((int)Math.min(Integer.MAX_VALUE, buckets.get(i)));
+        }
+    }
+
+    static final int RECEIVED = 0;         // datagrams received
+    static final int AUTH_FAILURES = 1;    // dropped for being too short or having the wrong password
+    static final int UNKNOWN_OPCODES = 2;  // authenticated, but nothing handles the opcode
+    static final int HANDLER_ERRORS = 3;   // handler threw
+    static final int STREAM_FRAMES = 4;    // sensor stream frames sent (any kind)
+    static final int IMAGES_ENCODED = 5;   // image replies
+    static final int IMAGE_BYTES = 6;      // total size of the encoded images
+    static final int IMAGE_ATTEMPTS = 7;   // encodes done while searching for parameters (IMAGE_ATTEMPTS / IMAGES_ENCODED is the search overhead)
+    static final int IMAGE_FORMATS = 8;    // first of ImageEncoder.FORMAT_COUNT counters - the formats chosen
+    static final int IMAGE_CACHE_HITS = IMAGE_FORMATS + ImageEncoder.FORMAT_COUNT; // image replies served from already encoded bytes
+    static final int IMAGE_EVICTIONS = IMAGE_CACHE_HITS + 1;  // image box content swapped out to compressed bytes to stay in the bitmap budget
+    static final int COUNTER_COUNT = IMAGE_EVICTIONS + 1;
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+    private final Histogram[] requests = new Histogram[256]; // handling time (receive to handler finished, which includes queuing the reply) by opcode
+    final Histogram outboundWait = new Histogram(); // time from queuing an outbound message to handing it to the socket
+    final Histogram redraw = new Histogram();       // control panel draw time
+    final Histogram imageEncode = new Histogram();  // image encoding time (including the parameter search)
+    private final long created = System.currentTimeMillis();
+
+    Metrics() {
+        for (int i = 0; i < requests.length; ++i) requests[i] = new Histogram();
+    }
+
+    void increment(int counter) { counters.incrementAndGet(counter); }
+    void add(int counter, long delta) { counters.addAndGet(counter, delta); }
+    long get(int counter) { return counters.get(counter); }
+    Histogram request(byte opcode) { return requests[opcode & 0xff]; }
+
+    private int activeOpcodes() {
+        int n = 0;
+        for (Histogram h : requests) if (h.getCount() != 0) ++n;
+        return n;
+    }
+
+    // size of encode() right now (opcodes that become active in the meantime are skipped if they don't fit)
+    int getEncodedSize() {
+        return 8 + 1 + 8 * COUNTER_COUNT + 3 * Histogram.ENCODED_SIZE + 1 + 1 + activeOpcodes() * (1 + Histogram.ENCODED_SIZE);
+    }
+    // i64 uptime (ms), u8 counter count, i64 counters..., outboundWait histogram, redraw histogram, imageEncode histogram, u8 bucket count, u8 opcode count, then (u8 opcode, histogram) for each opcode seen.
+    // bucket bounds are BUCKET_BOUNDS_US (fixed), so they aren't sent
+    void encode(ByteBuffer out, int maxOpcodes) {
+        out.putLong(System.currentTimeMillis() - created);
+        out.put((byte)COUNTER_COUNT);
+        for (int i = 0; i < COUNTER_COUNT; ++i) out.putLong(counters.get(i));
+        outboundWait.encode(out);
+        redraw.encode(out);
+        imageEncode.encode(out);
+        out.put((byte)BUCKET_COUNT);
+
+        int countPos = out.position(), n = 0;
+        out.put((byte)0);
+        for (int i = 0; i < requests.length && n < maxOpcodes && out.remaining() >= 1 + Histogram.ENCODED_SIZE; ++i) {
+            if (requests[i].getCount() == 0) continue;
+            out.put((byte)i);
+            requests[i].encode(out);
+            ++n;
+        }
+        out.put(countPos, (byte)n);
+    }
+
+    // human readable summary (e.g. for the navigation drawer)
+    String describe(int queueDepth, long queueDropped) {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format(Locale.US, "recv %d  auth fail %d  unknown %d  errors %d\n", get(RECEIVED), get(AUTH_FAILURES), get(UNKNOWN_OPCODES), get(HANDLER_ERRORS)));
+        b.append(String.format(Locale.US, "queue %d  dropped %d  stream frames %d\n", queueDepth, queueDropped, get(STREAM_FRAMES)));
+        describe(b, "send wait", outboundWait);
+        describe(b, "redraw", redraw);
+        if (get(IMAGES_ENCODED) != 0) {
+            b.append(String.format(Locale.US, "images %d  avg %d bytes  %.1f tries", get(IMAGES_ENCODED), get(IMAGE_BYTES) / get(IMAGES_ENCODED), (double)get(IMAGE_ATTEMPTS) / get(IMAGES_ENCODED)));
+            for (int i = 0; i < ImageEncoder.FORMAT_COUNT; ++i) {
+                if (get(IMAGE_FORMATS + i) != 0) b.append(String.format(Locale.US, "  %s %d", ImageEncoder.FORMAT_NAMES[i], get(IMAGE_FORMATS + i)));
+            }
+            b.append('\n');
+        }
+        if (get(IMAGE_CACHE_HITS) != 0) b.append(String.format(Locale.US, "image cache hits %d\n", get(IMAGE_CACHE_HITS)));
+        if (get(IMAGE_EVICTIONS) != 0) b.append(String.format(Locale.US, "image evictions %d\n", get(IMAGE_EVICTIONS)));
+        describe(b, "image encode", imageEncode);
+        for (int i = 0; i < requests.length; ++i) {
+            if (requests[i].getCount() != 0) describe(b, "'" + (char)i + "'", requests[i]);
+        }
+        return b.toString().trim();
+    }
+    private static void describe(StringBuilder b, String name, Histogram h) {
+        long n = h.getCount();
+        if (n == 0) return;
+        b.append(String.format(Locale.US, "%s: n %d  avg %.2f ms  p50 %.2f  p99 %.2f  max %.2f\n", name, n, h.getSum() / 1000.0 / n, h.getQuantile(0.5) / 1000.0, h.getQuantile(0.99) / 1000.0, h.getMax() / 1000.0));
+    }
+}
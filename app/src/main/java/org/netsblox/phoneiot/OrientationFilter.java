@@ -0,0 +1,168 @@
+package org.netsblox.phoneiot;
+
+// incremental device orientation from accelerometer + magnetometer samples, optionally smoothed with the gyroscope (complementary filter).
+// the accelerometer/magnetometer give an absolute (but noisy) orientation, the gyroscope gives a smooth (but drifting) relative one -
+// while gyroscope samples are arriving, the orientation follows the gyroscope and is pulled toward the absolute one with the given time constant.
+// orientation is kept as a quaternion (device to world, same frame as SensorManager.getRotationMatrix) so there are no angle wrap-around problems.
+// nothing here allocates - this is meant to be fed directly from sensor callbacks (all on one thread).
+final class OrientationFilter {
+    static final double DEFAULT_TIME_CONSTANT = 0.5; // seconds
+    private static final long MAX_GYRO_GAP_NS = 500000000; // longer than this between gyroscope samples and we start over from the absolute orientation
+    private static final double MIN_GRAVITY_SQUARED = 0.01 * 9.81 * 9.81; // same free fall cutoff as SensorManager.getRotationMatrix
+    private static final double MIN_HORIZONTAL = 0.1; // magnetic field (nearly) parallel to gravity - no meaningful heading
+
+    private final double[] accel = new double[3];
+    private final double[] magnet = new double[3];
+    private boolean hasAccel = false, hasMagnet = false;
+
+    private final double[] m = new double[9]; // scratch rotation matrix
+    private final double[] absolute = new double[4]; // w, x, y, z
+    private final double[] fused = new double[4];
+    private boolean hasAbsolute = false, hasFused = false;
+
+    private long lastGyroTimestamp = 0;
+    private boolean hasGyro = false;
+    private double timeConstant = DEFAULT_TIME_CONSTANT;
+
+    // seconds - larger trusts the gyroscope for longer, infinity is gyroscope only (after the first absolute orientation)
+    void setTimeConstant(double seconds) {
+        timeConstant = Math.max(0, seconds);
+    }
+
+    // these return true if the orientation changed
+    boolean updateAccelerometer(float[] v, long timestamp) {
+        for (int i = 0; i < 3; ++i) accel[i] = v[i];
+        hasAccel = true;
+        return updateAbsolute(timestamp);
+    }
+    boolean updateMagnetometer(float[] v, long timestamp) {
+        for (int i = 0; i < 3; ++i) magnet[i] = v[i];
+        hasMagnet = true;
+        return updateAbsolute(timestamp);
+    }
+    // angular velocity (rad/s) in device coordinates
+    boolean updateGyroscope(float[] w, long timestamp) {
+        double dt = (timestamp - lastGyroTimestamp) / 1e9;
+        boolean continuous = hasGyro && timestamp > lastGyroTimestamp && timestamp - lastGyroTimestamp <= MAX_GYRO_GAP_NS;
+        lastGyroTimestamp = timestamp;
+        hasGyro = true;
+
+        if (!continuous || !hasFused) { // nothing to integrate from - (re)start from the absolute orientation
+            if (!hasAbsolute) return false;
+            System.arraycopy(absolute, 0, fused, 0, 4);
+            hasFused = true;
+            return true;
+        }
+
+        // rotate by the angle covered since the last sample (exact for constant angular velocity)
+        double wx = w[0], wy = w[1], wz = w[2];
+        double rate = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        double half = rate * dt / 2;
+        if (half > 0) {
+            double s = Math.sin(half) / rate, c = Math.cos(half);
+            multiply(fused, c, wx * s, wy * s, wz * s);
+        }
+
+        if (hasAbsolute) blend(fused, absolute, dt / (timeConstant + dt)); // infinite time constant gives zero weight
+        normalize(fused);
+        return true;
+    }
+
+    // azimuth, pitch, roll (radians) in the same convention as SensorManager.getOrientation - returns false (leaving out alone) if there is no orientation yet
+    boolean getOrientation(double[] out) {
+        if (!hasFused) return false;
+        toMatrix(fused, m);
+        out[0] = Math.atan2(m[1], m[4]);
+        out[1] = Math.asin(Math.max(-1, Math.min(1, -m[7])));
+        out[2] = Math.atan2(-m[6], m[8]);
+        return true;
+    }
+
+    private boolean gyroActive(long timestamp) {
+        return hasGyro && Math.abs(timestamp - lastGyroTimestamp) <= MAX_GYRO_GAP_NS;
+    }
+    private boolean updateAbsolute(long timestamp) {
+        if (!hasAccel || !hasMagnet || !rotationMatrix(accel, magnet, m)) return false;
+        fromMatrix(m, absolute);
+        if (hasAbsolute && dot(absolute, fused) < 0) negate(absolute); // keep on the same hemisphere as the current estimate (q and -q are the same rotation)
+        hasAbsolute = true;
+        if (gyroActive(timestamp) && hasFused) return false; // folded in on the next gyroscope sample
+
+        System.arraycopy(absolute, 0, fused, 0, 4);
+        hasFused = true;
+        return true;
+    }
+
+    // rows are east, north, up in device coordinates (the same as SensorManager.getRotationMatrix)
+    private static boolean rotationMatrix(double[] a, double[] e, double[] r) {
+        double ax = a[0], ay = a[1], az = a[2];
+        double normA = ax * ax + ay * ay + az * az;
+        if (normA < MIN_GRAVITY_SQUARED) return false;
+
+        double hx = e[1] * az - e[2] * ay, hy = e[2] * ax - e[0] * az, hz = e[0] * ay - e[1] * ax;
+        double normH = Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normH < MIN_HORIZONTAL) return false;
+
+        hx /= normH; hy /= normH; hz /= normH;
+        double invA = 1 / Math.sqrt(normA);
+        ax *= invA; ay *= invA; az *= invA;
+        double mx = ay * hz - az * hy, my = az * hx - ax * hz, mz = ax * hy - ay * hx;
+
+        r[0] = hx; r[1] = hy; r[2] = hz;
+        r[3] = mx; r[4] = my; r[5] = mz;
+        r[6] = ax; r[7] = ay; r[8] = az;
+        return true;
+    }
+
+    // the quaternion q such that toMatrix(q) == r (r must be a rotation matrix)
+    private static void fromMatrix(double[] r, double[] q) {
+        double trace = r[0] + r[4] + r[8];
+        if (trace > 0) {
+            double s = Math.sqrt(trace + 1) * 2;
+            q[0] = s / 4; q[1] = (r[7] - r[5]) / s; q[2] = (r[2] - r[6]) / s; q[3] = (r[3] - r[1]) / s;
+        }
+        else if (r[0] > r[4] && r[0] > r[8]) {
+            double s = Math.sqrt(1 + r[0] - r[4] - r[8]) * 2;
+            q[0] = (r[7] - r[5]) / s; q[1] = s / 4; q[2] = (r[1] + r[3]) / s; q[3] = (r[2] + r[6]) / s;
+        }
+        else if (r[4] > r[8]) {
+            double s = Math.sqrt(1 + r[4] - r[0] - r[8]) * 2;
+            q[0] = (r[2] - r[6]) / s; q[1] = (r[1] + r[3]) / s; q[2] = s / 4; q[3] = (r[5] + r[7]) / s;
+        }
+        else {
+            double s = Math.sqrt(1 + r[8] - r[0] - r[4]) * 2;
+            q[0] = (r[3] - r[1]) / s; q[1] = (r[2] + r[6]) / s; q[2] = (r[5] + r[7]) / s; q[3] = s / 4;
+        }
+        normalize(q);
+    }
+    private static void toMatrix(double[] q, double[] r) {
+        double w = q[0], x = q[1], y = q[2], z = q[3];
+        r[0] = 1 - 2 * (y * y + z * z); r[1] = 2 * (x * y - w * z);     r[2] = 2 * (x * z + w * y);
+        r[3] = 2 * (x * y + w * z);     r[4] = 1 - 2 * (x * x + z * z); r[5] = 2 * (y * z - w * x);
+        r[6] = 2 * (x * z - w * y);     r[7] = 2 * (y * z + w * x);     r[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    // q = q * (w, x, y, z)
+    private static void multiply(double[] q, double w, double x, double y, double z) {
+        double qw = q[0], qx = q[1], qy = q[2], qz = q[3];
+        q[0] = qw * w - qx * x - qy * y - qz * z;
+        q[1] = qw * x + qx * w + qy * z - qz * y;
+        q[2] = qw * y - qx * z + qy * w + qz * x;
+        q[3] = qw * z + qx * y - qy * x + qz * w;
+    }
+    // moves q toward target by the given fraction (normalized lerp along the shorter path)
+    private static void blend(double[] q, double[] target, double t) {
+        double sign = dot(q, target) < 0 ? -1 : 1;
+        for (int i = 0; i < 4; ++i) q[i] += (sign * target[i] - q[i]) * t;
+    }
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    }
+    private static void negate(double[] q) {
+        for (int i = 0; i < 4; ++i) q[i] = -q[i];
+    }
+    private static void normalize(double[] q) {
+        double norm = Math.sqrt(dot(q, q));
+        for (int i = 0; i < 4; ++i) q[i] /= norm;
+    }
+}
@@ -0,0 +1,125 @@
+package org.netsblox.phoneiot;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// lock-free multi-producer single-consumer queue for outbound messages.
+// messages are split into two bounded rings based on their drop policy, and the consumer always drains the reliable ring first.
+final class OutboundQueue<T> {
+    enum Policy {
+        DROP_OLDEST, // stale data (e.g. streamed values) - when full, the oldest message of this class is discarded to make room
+        NEVER_DROP,  // replies/acks - when full, the message spills into a (bounded) overflow list instead of blocking the producer
+    }
+
+    // bounded lock-free array queue (dmitry vyukov's design) - safe for multiple producers and consumers,
+    // which we need because DROP_OLDEST producers also pop from the ring
+    private static final class Ring<T> {
+        private final int mask;
+        private final AtomicReferenceArray<T> items;
+        private final AtomicLongArray sequences;
+        private final AtomicLong head = new AtomicLong(0);
+        private final AtomicLong tail = new AtomicLong(0);
+
+        Ring(int capacity) {
+            int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1; // round up to a power of two
+            mask = size - 1;
+            items = new AtomicReferenceArray<>(size);
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; ++i) sequences.set(i, i);
+        }
+
+        boolean offer(T item) {
+            for (;;) {
+                long pos = tail.get();
+                int idx = (int)pos & mask;
+                long diff = sequences.get(idx) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        items.lazySet(idx, item);
+                        sequences.lazySet(idx, pos + 1); // publish
+                        return true;
+                    }
+                }
+                else if (diff < 0) return false; // full
+                // otherwise another producer beat us to this slot - try again
+            }
+        }
+        T poll() {
+            for (;;) {
+                long pos = head.get();
+                int idx = (int)pos & mask;
+                long diff = sequences.get(idx) - (pos + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        T item = items.get(idx);
+                        items.lazySet(idx, null);
+                        sequences.lazySet(idx, pos + mask + 1); // mark slot free for the next lap
+                        return item;
+                    }
+                }
+                else if (diff < 0) return null; // empty
+                // otherwise another consumer beat us to this slot - try again
+            }
+        }
+        int size() {
+            return (int)Math.max(0, tail.get() - head.get());
+        }
+    }
+
+    private final Ring<T> lossy;
+    private final Ring<T> reliable;
+    private final ConcurrentLinkedQueue<T> overflow = new ConcurrentLinkedQueue<>(); // only used if the reliable ring fills up
+    private final AtomicInteger overflowSize = new AtomicInteger(0); // reserved before adding, so it's never less than the real size
+    private final int overflowCapacity;
+
+    private final AtomicLong enqueued = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong sent = new AtomicLong(0);
+
+    OutboundQueue(int lossyCapacity, int reliableCapacity, int overflowCapacity) {
+        lossy = new Ring<>(lossyCapacity);
+        reliable = new Ring<>(reliableCapacity);
+        this.overflowCapacity = overflowCapacity;
+    }
+
+    // returns false if the message was dropped - only possible for NEVER_DROP once the overflow is full as well (counted in getDropped)
+    boolean offer(T item, Policy policy) {
+        enqueued.incrementAndGet();
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!lossy.offer(item)) {
+                    if (lossy.poll() != null) dropped.incrementAndGet();
+                }
+                break;
+            case NEVER_DROP:
+                if (overflowSize.get() == 0 && reliable.offer(item)) break; // once anything spills, everything after it does too until it drains (keeps fifo order)
+                if (overflowSize.incrementAndGet() > overflowCapacity) {
+                    overflowSize.decrementAndGet();
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                overflow.add(item);
+                break;
+        }
+        return true;
+    }
+    // consumer only - returns null if there is nothing to send
+    T poll() {
+        T res = reliable.poll();
+        if (res == null && (res = overflow.poll()) != null) overflowSize.decrementAndGet();
+        if (res == null) res = lossy.poll();
+        return res;
+    }
+    // consumer only - called once a polled message has actually been handed to the socket
+    void markSent() {
+        sent.incrementAndGet();
+    }
+
+    int depth() { return lossy.size() + reliable.size() + overflowSize.get(); }
+    long getEnqueued() { return enqueued.get(); }
+    long getDropped() { return dropped.get(); }
+    long getSent() { return sent.get(); }
+}
@@ -0,0 +1,55 @@
+package org.netsblox.phoneiot;
+
+import java.nio.ByteBuffer;
+
+// writes netsblox-formatted packets (10 byte header followed by the message content) into a single preallocated buffer.
+// the buffer is reused for every packet, so the result of finish() is only valid until the next call to begin().
+final class PacketEncoder {
+    static final int HEADER_SIZE = 10;
+
+    private final byte[] mac;
+    private final ByteBuffer buffer;
+
+    // mac is held by reference (not copied), so later changes to the device id are picked up automatically
+    PacketEncoder(byte[] mac, int capacity) {
+        this.mac = mac;
+        this.buffer = ByteBuffer.allocateDirect(HEADER_SIZE + capacity);
+    }
+
+    PacketEncoder begin(byte opcode) {
+        buffer.clear();
+        buffer.put(mac, 0, 6);
+        buffer.putInt(0); // we can set the time field to zero (pretty sure it isn't actually used by the server)
+        buffer.put(opcode);
+        return this;
+    }
+
+    PacketEncoder putByte(int v) {
+        buffer.put((byte)v);
+        return this;
+    }
+    PacketEncoder putInt(int v) {
+        buffer.putInt(v);
+        return this;
+    }
+    PacketEncoder putFloat(float v) {
+        buffer.putFloat(v);
+        return this;
+    }
+    PacketEncoder putDouble(double v) {
+        buffer.putDouble(v);
+        return this;
+    }
+    // writes a length-prefixed vector of doubles (the format used by sensor streams)
+    PacketEncoder putVector(double[] vals) {
+        buffer.put((byte)vals.length);
+        for (double v : vals) buffer.putDouble(v);
+        return this;
+    }
+
+    // finalizes the packet - the returned buffer spans the entire packet (header included)
+    ByteBuffer finish() {
+        buffer.flip();
+        return buffer;
+    }
+}
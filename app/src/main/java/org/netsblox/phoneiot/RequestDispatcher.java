@@ -0,0 +1,68 @@
+package org.netsblox.phoneiot;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// maps request opcodes (first byte of a message) to their handlers - dispatch is a single array lookup
+final class RequestDispatcher {
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // StandardCharsets is only API level 19+
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(Request req) throws Exception;
+    }
+
+    // a received message - this is a reusable view over the receive buffer, so it is only valid until the next message arrives.
+    // handlers should parse through the accessors (offsets are absolute, big-endian) rather than keeping the buffer around.
+    static final class Request {
+        private final byte[] buf;
+        private final ByteBuffer view;
+        private int length = 0;
+        private SocketAddress from = null;
+
+        Request(byte[] buf) {
+            this.buf = buf;
+            this.view = ByteBuffer.wrap(buf).asReadOnlyBuffer();
+        }
+
+        void reset(int length, SocketAddress from) {
+            this.length = length;
+            this.from = from;
+            view.limit(length);
+        }
+
+        int length() { return length; }
+        SocketAddress from() { return from; }
+        byte opcode() { return buf[0]; }
+
+        byte get(int pos) { return view.get(pos); }
+        boolean getBool(int pos) { return view.get(pos) != 0; }
+        int getU8(int pos) { return (int)view.get(pos) & 0xff; }
+        int getU16(int pos) { return (int)view.getShort(pos) & 0xffff; }
+        int getInt(int pos) { return view.getInt(pos); }
+        float getFloat(int pos) { return view.getFloat(pos); }
+        long getLong(int pos) { return view.getLong(pos); }
+
+        String getString(int start) { return getString(start, length); }
+        String getString(int start, int stop) { return new String(buf, start, stop - start, UTF8); }
+        byte[] copyRange(int start, int stop) { return Arrays.copyOfRange(buf, start, stop); }
+
+        // the raw backing array, for apis that only accept arrays (e.g. image decoding) - do not modify
+        byte[] array() { return buf; }
+    }
+
+    private final Handler[] handlers = new Handler[256];
+
+    void register(char opcode, Handler handler) {
+        handlers[opcode & 0xff] = handler;
+    }
+    // returns false if there was no handler for the opcode
+    boolean dispatch(Request req) throws Exception {
+        Handler handler = handlers[req.opcode() & 0xff];
+        if (handler == null) return false;
+        handler.handle(req);
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package org.netsblox.phoneiot;
+
+import java.nio.ByteBuffer;
+
+// full-resolution history of a sensor - every sample is kept (oldest overwritten first) in flat primitive arrays, so recording never allocates.
+// samples are numbered from 0 in the order they were added, so readers can ask for everything since the last sample they saw.
+final class SampleRing {
+    private final int dims;
+    private final int mask;
+    private final long[] timestamps;
+    private final float[] values; // dims values per sample
+    private long next = 0; // sequence number of the next sample to be added (also the total number ever added)
+
+    SampleRing(int dims, int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1; // round up to a power of two
+        this.dims = dims;
+        this.mask = size - 1;
+        this.timestamps = new long[size];
+        this.values = new float[size * dims];
+    }
+
+    int getDimensions() { return dims; }
+    int getCapacity() { return mask + 1; }
+    // bytes used by each encoded sample (i64 timestamp followed by f32 values)
+    int getEncodedSampleSize() { return 8 + 4 * dims; }
+
+    // values past the end of src are set to zero (some sensors have optional values)
+    synchronized void add(float[] src, double scale, long timestamp) {
+        int slot = (int)next & mask;
+        int base = slot * dims;
+        int m = Math.min(dims, src.length);
+        for (int i = 0; i < m; ++i) values[base + i] = (float)(scale * src[i]);
+        for (int i = m; i < dims; ++i) values[base + i] = 0;
+        timestamps[slot] = timestamp;
+        ++next;
+    }
+    synchronized void clear() {
+        next = 0;
+    }
+
+    synchronized long getNextSequence() { return next; }
+    synchronized long getOldestSequence() { return Math.max(0, next - (mask + 1)); }
+    // number of retained samples with sequence number >= since
+    synchronized int countSince(long since) {
+        return (int)Math.max(0, next - Math.max(since, getOldestSequence()));
+    }
+
+    // writes i64 first sequence, i64 next sequence, u16 count, then count samples (starting from since, or the oldest retained sample if that's been lost).
+    // at most maxSamples (<= 65535) are written - if more are available, the reader can continue from first + count.
+    synchronized void encode(ByteBuffer out, long since, int maxSamples) {
+        long first = Math.max(since, getOldestSequence());
+        int count = (int)Math.max(0, Math.min(next - first, maxSamples));
+        out.putLong(first).putLong(next).putShort((short)count);
+        for (long seq = first; seq < first + count; ++seq) {
+            int slot = (int)seq & mask;
+            out.putLong(timestamps[slot]);
+            for (int i = slot * dims, end = i + dims; i < end; ++i) out.putFloat(values[i]);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.netsblox.phoneiot;
+
+// keeps track of which sensors are actually in use, so idle ones can be turned off.
+// long-lived users (e.g. stream subscriptions) hold a reference with acquire/release, and one-off users (e.g. a single read) just touch the sensor.
+// a sensor stays active while it has references, and for idleTimeout after its last use - the result is a bitmask of active sensors (bit i is sensor i).
+final class SensorDemandTracker {
+    private final int[] refs;
+    private final long[] lastUse;
+    private int active = 0;
+    private long idleTimeout;
+
+    SensorDemandTracker(int sensors, long idleTimeout) {
+        if (sensors > SensorScheduler.MAX_SENSORS) throw new IllegalArgumentException("unsupported sensor count: " + sensors);
+        refs = new int[sensors];
+        lastUse = new long[sensors];
+        this.idleTimeout = idleTimeout;
+    }
+
+    synchronized long getIdleTimeout() { return idleTimeout; }
+    synchronized void setIdleTimeout(long idleTimeout) { this.idleTimeout = Math.max(0, idleTimeout); }
+    synchronized int getActive() { return active; }
+    synchronized boolean isActive(int sensor) { return (active & (1 << sensor)) != 0; }
+
+    // these return true if the sensor wasn't active before (i.e. it needs to be started)
+    synchronized boolean acquire(int sensor, long now) {
+        ++refs[sensor];
+        return touch(sensor, now);
+    }
+    synchronized boolean touch(int sensor, long now) {
+        lastUse[sensor] = now;
+        boolean wasActive = isActive(sensor);
+        active |= 1 << sensor;
+        return !wasActive;
+    }
+    // the idle timeout starts from the last release
+    synchronized void release(int sensor, long now) {
+        if (refs[sensor] > 0) --refs[sensor];
+        lastUse[sensor] = now;
+    }
+
+    // deactivates anything that has been idle for too long - returns the sensors that were deactivated (i.e. need to be stopped)
+    synchronized int expire(long now) {
+        int expired = 0;
+        for (int i = 0; i < refs.length; ++i) {
+            if ((active & (1 << i)) != 0 && refs[i] == 0 && now - lastUse[i] >= idleTimeout) expired |= 1 << i;
+        }
+        active &= ~expired;
+        return expired;
+    }
+}
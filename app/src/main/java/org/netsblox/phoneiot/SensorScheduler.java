@@ -0,0 +1,121 @@
+package org.netsblox.phoneiot;
+
+import java.util.Arrays;
+
+// decides which subscribed sensors are due to be streamed, each on its own independent period.
+// sensors are kept in a binary min-heap ordered by due time, so the next deadline is O(1) and each emission is O(log n).
+// this is not thread safe - callers must provide their own synchronization.
+final class SensorScheduler {
+    static final int MAX_SENSORS = 32; // due sets are returned as a bitmask
+
+    private final long[] period; // per sensor (0 means not subscribed)
+    private final long[] due;    // per sensor
+    private final int[] where;   // per sensor index into heap (-1 means not subscribed)
+    private final int[] heap;    // sensor ids
+    private int size = 0;
+
+    SensorScheduler(int sensors) {
+        if (sensors < 0 || sensors > MAX_SENSORS) throw new IllegalArgumentException("unsupported sensor count: " + sensors);
+        period = new long[sensors];
+        due = new long[sensors];
+        where = new int[sensors];
+        heap = new int[sensors];
+        Arrays.fill(where, -1);
+    }
+
+    int getSensorCount() { return period.length; }
+    long getPeriod(int sensor) { return period[sensor]; }
+    boolean isEmpty() { return size == 0; }
+    // every subscribed sensor (bit i is sensor i)
+    int getSubscribed() {
+        int mask = 0;
+        for (int i = 0; i < size; ++i) mask |= 1 << heap[i];
+        return mask;
+    }
+
+    // subscribes a sensor with the given period - a period of zero (or less) unsubscribes it.
+    // new subscriptions are due immediately, and changing an existing period never delays the next emission past now + period.
+    void setPeriod(int sensor, long period, long now) {
+        if (period <= 0) {
+            remove(sensor);
+            return;
+        }
+        this.period[sensor] = period;
+        if (where[sensor] < 0) {
+            due[sensor] = now;
+            heap[size] = sensor;
+            where[sensor] = size;
+            siftUp(size++);
+        }
+        else if (due[sensor] > now + period) {
+            due[sensor] = now + period;
+            siftUp(where[sensor]); // due time only decreased
+        }
+    }
+    void remove(int sensor) {
+        int i = where[sensor];
+        period[sensor] = 0;
+        if (i < 0) return;
+        where[sensor] = -1;
+
+        int last = heap[--size];
+        if (i == size) return;
+        heap[i] = last;
+        where[last] = i;
+        siftDown(i);
+        siftUp(where[last]);
+    }
+    void clear() {
+        for (int i = 0; i < size; ++i) {
+            where[heap[i]] = -1;
+            period[heap[i]] = 0;
+        }
+        size = 0;
+    }
+
+    // the time the next sensor is due, or Long.MAX_VALUE if nothing is subscribed
+    long nextDue() {
+        return size == 0 ? Long.MAX_VALUE : due[heap[0]];
+    }
+    // returns the set of sensors that are due (bit i is sensor i) and advances each of them to their next period
+    int pollDue(long now) {
+        int mask = 0;
+        while (size > 0 && due[heap[0]] <= now) {
+            int s = heap[0];
+            mask |= 1 << s;
+            long next = due[s] + period[s];
+            due[s] = next > now ? next : now + period[s]; // if we fell behind, skip the missed emissions rather than bursting
+            siftDown(0);
+        }
+        return mask;
+    }
+
+    private void siftUp(int i) {
+        int s = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            int p = heap[parent];
+            if (due[p] <= due[s]) break;
+            heap[i] = p;
+            where[p] = i;
+            i = parent;
+        }
+        heap[i] = s;
+        where[s] = i;
+    }
+    private void siftDown(int i) {
+        int s = heap[i];
+        for (;;) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && due[heap[child + 1]] < due[heap[child]]) ++child;
+            int c = heap[child];
+            if (due[s] <= due[c]) break;
+            heap[i] = c;
+            where[c] = i;
+            i = child;
+        }
+        heap[i] = s;
+        where[s] = i;
+    }
+}
@@ -0,0 +1,55 @@
+package org.netsblox.phoneiot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// the latest sample of a sensor, shared between a single writer (the sensor callback) and any number of readers.
+// this is a seqlock - the writer never blocks, and readers retry if a write happened while they were copying, so they never see a torn vector.
+final class SensorSnapshot {
+    private final int dims;
+    private final AtomicLongArray slots; // double bits for each dimension, followed by the event timestamp
+    private final AtomicLong seq = new AtomicLong(0); // odd while a write is in progress - the number of samples written is seq / 2
+
+    SensorSnapshot(int dims) {
+        this.dims = dims;
+        this.slots = new AtomicLongArray(dims + 1);
+    }
+
+    int getDimensions() { return dims; }
+    // the sequence number of the latest sample (0 if there hasn't been one yet)
+    long getSequence() { return seq.get() >>> 1; }
+    long getTimestamp() { return slots.get(dims); }
+
+    // single writer only - values past the end of src are set to zero (some sensors have optional values)
+    void write(float[] src, double scale, long timestamp) {
+        long s = seq.get();
+        seq.set(s + 1);
+        int m = Math.min(dims, src.length);
+        for (int i = 0; i < m; ++i) slots.set(i, Double.doubleToRawLongBits(scale * src[i]));
+        for (int i = m; i < dims; ++i) slots.set(i, 0);
+        slots.set(dims, timestamp);
+        seq.set(s + 2);
+    }
+    void write(double[] src, long timestamp) {
+        long s = seq.get();
+        seq.set(s + 1);
+        int m = Math.min(dims, src.length);
+        for (int i = 0; i < m; ++i) slots.set(i, Double.doubleToRawLongBits(src[i]));
+        for (int i = m; i < dims; ++i) slots.set(i, 0);
+        slots.set(dims, timestamp);
+        seq.set(s + 2);
+    }
+
+    // copies a consistent sample into dest (at least getDimensions() long) and returns its sequence number (0 if there hasn't been one yet)
+    long read(double[] dest) {
+        for (;;) {
+            long before = seq.get();
+            if ((before & 1) != 0) { // write in progress
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < dims; ++i) dest[i] = Double.longBitsToDouble(slots.get(i));
+            if (seq.get() == before) return before >>> 1;
+        }
+    }
+}
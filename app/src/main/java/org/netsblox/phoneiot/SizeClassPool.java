@@ -0,0 +1,88 @@
+package org.netsblox.phoneiot;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+// free list of reusable buffers (see BitmapPool), bucketed by size class so a request only ever gets something close to its size.
+// items are trimmed oldest first. not thread safe
+final class SizeClassPool<T> {
+    interface Sink<T> {
+        void accept(T item);
+    }
+
+    static final long MIN_CLASS = 4096;
+    static final int MAX_WASTE = 2; // never hand out something more than this many size classes over what was asked for
+
+    private static final class Item<T> {
+        final T value;
+        final long capacity;
+        final long seq;
+
+        Item(T value, long capacity, long seq) {
+            this.value = value;
+            this.capacity = capacity;
+            this.seq = seq;
+        }
+    }
+
+    private final TreeMap<Long, ArrayDeque<Item<T>>> classes = new TreeMap<>(); // each deque is oldest first
+    private long bytes = 0;
+    private int count = 0;
+    private long nextSeq = 0;
+
+    // rounds up to the next power of two or 1.5 times a power of two, so classes are at most 50% apart
+    static long sizeClass(long bytes) {
+        long c = MIN_CLASS;
+        while (c < bytes) {
+            if (c + c / 2 >= bytes) return c + c / 2;
+            c *= 2;
+        }
+        return c;
+    }
+
+    // the most recently added item with at least this capacity (within MAX_WASTE classes), or null
+    T take(long minCapacity) {
+        long cls = sizeClass(minCapacity), limit = cls;
+        for (int i = 0; i < MAX_WASTE; ++i) limit = sizeClass(limit + 1);
+        for (Map.Entry<Long, ArrayDeque<Item<T>>> e : classes.subMap(cls, true, limit, true).entrySet()) {
+            ArrayDeque<Item<T>> q = e.getValue();
+            for (Iterator<Item<T>> it = q.descendingIterator(); it.hasNext(); ) {
+                Item<T> item = it.next();
+                if (item.capacity < minCapacity) continue; // only possible in the first class
+                it.remove();
+                if (q.isEmpty()) classes.remove(e.getKey());
+                bytes -= item.capacity;
+                --count;
+                return item.value;
+            }
+        }
+        return null;
+    }
+    void put(T value, long capacity) {
+        long cls = sizeClass(capacity);
+        ArrayDeque<Item<T>> q = classes.get(cls);
+        if (q == null) classes.put(cls, q = new ArrayDeque<>());
+        q.addLast(new Item<>(value, capacity, nextSeq++));
+        bytes += capacity;
+        ++count;
+    }
+    // drops the oldest items (passing them to dropped) until we hold at most maxBytes
+    void trim(long maxBytes, Sink<T> dropped) {
+        while (bytes > maxBytes) {
+            Map.Entry<Long, ArrayDeque<Item<T>>> oldest = null;
+            for (Map.Entry<Long, ArrayDeque<Item<T>>> e : classes.entrySet()) {
+                if (oldest == null || e.getValue().peekFirst().seq < oldest.getValue().peekFirst().seq) oldest = e;
+            }
+            Item<T> item = oldest.getValue().pollFirst();
+            if (oldest.getValue().isEmpty()) classes.remove(oldest.getKey());
+            bytes -= item.capacity;
+            --count;
+            dropped.accept(item.value);
+        }
+    }
+
+    long getBytes() { return bytes; }
+    int size() { return count; }
+}
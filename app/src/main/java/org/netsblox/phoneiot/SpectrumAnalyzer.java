@@ -0,0 +1,111 @@
+package org.netsblox.phoneiot;
+
+// frequency analysis of 16-bit pcm over consecutive (non-overlapping) hann-windowed frames - all buffers are preallocated, so analysis never allocates.
+// the result of each frame is { dominant frequency (Hz), band 0 energy, band 1 energy, ... }, where bands are log-spaced from minFrequency up to nyquist.
+// band energy is the mean square (normalized to full scale) the band contributes, so a full scale sine gives 0.5 in its band.
+final class SpectrumAnalyzer {
+    private static final double NORMALIZATION_FACTOR = 32768.0;
+    private static final double SILENCE_POWER = 1e-12; // below this there is no meaningful dominant frequency
+
+    private final FFT fft;
+    private final int sampleRate;
+    private final double[] window;
+    private final double[] frame; // normalized samples waiting to be analyzed
+    private final double[] re;
+    private final double[] im;
+    private final double[] power; // one-sided, per bin
+    private final int[] bandEdges; // bin ranges [bandEdges[i], bandEdges[i + 1])
+    private final double powerScale;
+    private int fill = 0;
+
+    SpectrumAnalyzer(int fftSize, int sampleRate, int bands, double minFrequency) {
+        if (bands < 1) throw new IllegalArgumentException("need at least one band");
+        this.fft = new FFT(fftSize);
+        this.sampleRate = sampleRate;
+        int n = fftSize;
+
+        window = new double[n];
+        double sumSquares = 0;
+        for (int i = 0; i < n; ++i) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / n);
+            sumSquares += window[i] * window[i];
+        }
+        powerScale = 1.0 / (n * sumSquares); // undoes the fft gain and the window's energy loss (parseval)
+
+        frame = new double[n];
+        re = new double[n];
+        im = new double[n];
+        power = new double[n / 2 + 1];
+
+        // log-spaced band edges, but every band gets at least one bin
+        bandEdges = new int[bands + 1];
+        double nyquist = sampleRate / 2.0;
+        double lo = Math.max(minFrequency, (double)sampleRate / n);
+        for (int i = 0; i <= bands; ++i) {
+            double freq = lo * Math.pow(nyquist / lo, (double)i / bands);
+            bandEdges[i] = (int)Math.round(freq * n / sampleRate);
+        }
+        bandEdges[0] = Math.max(1, bandEdges[0]); // skip dc
+        bandEdges[bands] = n / 2 + 1;
+        for (int i = 1; i <= bands; ++i) bandEdges[i] = Math.max(bandEdges[i], bandEdges[i - 1] + 1);
+        if (bandEdges[bands] > n / 2 + 1) throw new IllegalArgumentException("too many bands for fft size " + n);
+    }
+
+    int getFftSize() { return fft.size(); }
+    int getBandCount() { return bandEdges.length - 1; }
+    int getOutputSize() { return 1 + getBandCount(); }
+
+    // feeds samples in - returns true if at least one frame finished, in which case out (getOutputSize() long) holds the results of the last one
+    boolean process(short[] pcm, int offset, int length, double[] out) {
+        boolean finished = false;
+        int n = frame.length;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            frame[fill++] = pcm[i] / NORMALIZATION_FACTOR;
+            if (fill == n) {
+                analyze(out);
+                fill = 0;
+                finished = true;
+            }
+        }
+        return finished;
+    }
+    // analyzes a full frame of normalized samples directly (length must be the fft size)
+    void analyze(double[] samples, double[] out) {
+        System.arraycopy(samples, 0, frame, 0, frame.length);
+        analyze(out);
+        fill = 0;
+    }
+
+    private void analyze(double[] out) {
+        int n = frame.length;
+        for (int i = 0; i < n; ++i) {
+            re[i] = frame[i] * window[i];
+            im[i] = 0;
+        }
+        fft.transform(re, im);
+
+        int half = n / 2;
+        int peak = 0;
+        for (int k = 0; k <= half; ++k) {
+            double p = (re[k] * re[k] + im[k] * im[k]) * powerScale;
+            if (k != 0 && k != half) p *= 2; // one-sided spectrum - fold in the negative frequencies
+            power[k] = p;
+            if (k != 0 && k != half && (peak == 0 || p > power[peak])) peak = k;
+        }
+
+        // refine the dominant frequency between bins with a parabola through the log power around the peak
+        if (peak == 0 || power[peak] < SILENCE_POWER) out[0] = 0;
+        else {
+            double a = Math.log(power[peak - 1] + SILENCE_POWER), b = Math.log(power[peak] + SILENCE_POWER), c = Math.log(power[peak + 1] + SILENCE_POWER);
+            double denom = a - 2 * b + c;
+            double delta = denom != 0 ? 0.5 * (a - c) / denom : 0;
+            out[0] = (peak + delta) * sampleRate / n;
+        }
+
+        for (int band = 0; band < bandEdges.length - 1; ++band) {
+            double sum = 0;
+            for (int k = bandEdges[band]; k < bandEdges[band + 1]; ++k) sum += power[k];
+            out[1 + band] = sum;
+        }
+    }
+}
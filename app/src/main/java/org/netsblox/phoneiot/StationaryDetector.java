@@ -0,0 +1,51 @@
+package org.netsblox.phoneiot;
+
+// decides whether the device has been sitting still, from accelerometer magnitude samples and other motion hints (e.g. new steps).
+// any sample that strays from the running mean by more than the threshold counts as motion - after stillTime without motion, the device is stationary.
+// the longer it stays that way, the larger the backoff factor (doubling every stillTime), which is used to stretch out expensive polling like location updates.
+final class StationaryDetector {
+    private static final double MEAN_WEIGHT = 0.1; // how quickly the mean follows the samples (gravity doesn't change, but sensor bias/orientation can)
+
+    private final double threshold;
+    private final long stillTime;
+    private double mean = 0;
+    private boolean hasMean = false;
+    private long lastMotion;
+
+    // threshold in the units of the samples (m/s^2), times in whatever units the caller passes to the other methods
+    StationaryDetector(double threshold, long stillTime, long now) {
+        this.threshold = threshold;
+        this.stillTime = stillTime;
+        reset(now);
+    }
+
+    // forgets everything and counts as motion at the given time
+    void reset(long now) {
+        hasMean = false;
+        lastMotion = now;
+    }
+
+    void addAcceleration(double magnitude, long time) {
+        if (!hasMean) {
+            mean = magnitude;
+            hasMean = true;
+            return;
+        }
+        if (Math.abs(magnitude - mean) > threshold) addMotion(time);
+        mean += (magnitude - mean) * MEAN_WEIGHT;
+    }
+    void addMotion(long time) {
+        lastMotion = Math.max(lastMotion, time);
+    }
+
+    boolean isStationary(long now) {
+        return now - lastMotion >= stillTime;
+    }
+    // 1 while moving, then 2, 4, 8, ... for every stillTime spent stationary (at most maxBackoff)
+    int getBackoff(long now, int maxBackoff) {
+        long still = now - lastMotion;
+        if (still < stillTime) return 1;
+        long doublings = still / stillTime;
+        return doublings >= 31 ? maxBackoff : (int)Math.min(maxBackoff, 1L << doublings);
+    }
+}
@@ -0,0 +1,150 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CompactStreamEncoderTest {
+    private static final byte[] MAC = { 1, 2, 3, 4, 5, 6 };
+
+    private static ByteBuffer skipHeader(ByteBuffer b) {
+        b.position(PacketEncoder.HEADER_SIZE);
+        assertEquals('k', b.get());
+        return b;
+    }
+
+    // one tick where everything in candidates is due and active, committed as if it was sent
+    private static ByteBuffer tick(CompactStreamEncoder c, PacketEncoder enc, int timestamp, int candidates, double[][] values) {
+        c.prepare(candidates, candidates);
+        ByteBuffer b = c.encode(enc, timestamp, values);
+        if (b != null) c.commit();
+        return b;
+    }
+
+    @Test
+    public void unchanged_sensorsAreSkipped() {
+        PacketEncoder enc = new PacketEncoder(MAC, 1024);
+        CompactStreamEncoder c = new CompactStreamEncoder(3, 100);
+        c.configure(0, CompactStreamEncoder.ENCODING_F64, 0.5);
+        c.configure(1, CompactStreamEncoder.ENCODING_F32, 0);
+        double[][] values = { { 1.0, 2.0 }, { 3.0 }, null };
+
+        ByteBuffer b = skipHeader(tick(c, enc, 7, 0b111, values)); // first frame is always a keyframe
+        assertEquals(7, b.getInt());
+        assertEquals(1, b.get());
+        assertEquals(0b111, b.getInt());
+        assertEquals(2, b.get());
+        assertEquals(1.0, b.getDouble(), 0);
+        assertEquals(2.0, b.getDouble(), 0);
+        assertEquals(0x81, b.get() & 0xff);
+        assertEquals(3.0f, b.getFloat(), 0);
+        assertEquals(0, b.get());
+        assertFalse(b.hasRemaining());
+
+        assertNull(tick(c, enc, 8, 0b111, values)); // nothing moved
+
+        values[0][1] = 2.4; // within epsilon
+        values[1][0] = 3.5;
+        b = skipHeader(tick(c, enc, 9, 0b111, values));
+        assertEquals(9, b.getInt());
+        assertEquals(0, b.get());
+        assertEquals(0b010, b.getInt());
+        assertEquals(0x81, b.get() & 0xff);
+        assertEquals(3.5f, b.getFloat(), 0);
+        assertFalse(b.hasRemaining());
+
+        values[0][1] = 2.6; // now past epsilon (relative to what was sent, not the last sample)
+        b = skipHeader(tick(c, enc, 10, 0b001, values));
+        b.getInt();
+        b.get();
+        assertEquals(0b001, b.getInt());
+    }
+
+    @Test
+    public void keyframes_areSentPeriodically() {
+        PacketEncoder enc = new PacketEncoder(MAC, 1024);
+        CompactStreamEncoder c = new CompactStreamEncoder(2, 3);
+        double[][] values = { { 1.0 }, { 2.0 } };
+
+        int keyframes = 0, frames = 0;
+        for (int i = 0; i < 9; ++i) {
+            values[0][0] = i; // sensor 0 always changes, sensor 1 never does
+            ByteBuffer b = tick(c, enc, i, 0b11, values);
+            assertNotNull(b);
+            ++frames;
+            skipHeader(b).getInt();
+            boolean key = b.get() == 1;
+            assertEquals(key ? 0b11 : 0b01, b.getInt());
+            if (key) ++keyframes;
+        }
+        assertEquals(9, frames);
+        assertEquals(3, keyframes);
+
+        c.requestKeyframe();
+        ByteBuffer b = skipHeader(tick(c, enc, 0, 0b11, values));
+        b.getInt();
+        assertEquals(1, b.get());
+    }
+
+    @Test
+    public void f32_comparesAgainstRoundedValue() {
+        PacketEncoder enc = new PacketEncoder(MAC, 1024);
+        CompactStreamEncoder c = new CompactStreamEncoder(1, 1000);
+        c.configure(0, CompactStreamEncoder.ENCODING_F32, 0);
+        double[][] values = { { 0.1 } };
+
+        assertNotNull(tick(c, enc, 0, 1, values));
+        values[0][0] = (float)0.1; // same value once on the wire
+        assertNull(tick(c, enc, 1, 1, values));
+    }
+
+    @Test
+    public void lostFrame_isResent() {
+        PacketEncoder enc = new PacketEncoder(MAC, 1024);
+        CompactStreamEncoder c = new CompactStreamEncoder(2, 4);
+        double[][] values = { { 1.0 }, { 2.0 } };
+        assertNotNull(tick(c, enc, 0, 0b11, values)); // keyframe
+
+        values[1][0] = 3.0;
+        c.prepare(0b10, 0b11);
+        assertNotNull(c.encode(enc, 1, values)); // dropped by the socket - never committed
+
+        c.prepare(0b10, 0b11);
+        ByteBuffer b = skipHeader(c.encode(enc, 2, values)); // still a change as far as the receiver knows
+        b.getInt();
+        assertEquals(0, b.get());
+        assertEquals(0b10, b.getInt());
+        c.commit();
+
+        c.prepare(0b10, 0b11);
+        assertNull(c.encode(enc, 3, values));
+    }
+
+    @Test
+    public void keyframe_resendsIdleSensorsAfterNetworkLoss() {
+        PacketEncoder enc = new PacketEncoder(MAC, 1024);
+        CompactStreamEncoder c = new CompactStreamEncoder(2, 3);
+        double[][] values = { { 1.0 }, { 2.0 } };
+
+        // sensor 1 is a slow subscription - only due on the first tick
+        assertEquals(0b11, c.prepare(0b10, 0b11));
+        assertNotNull(c.encode(enc, 0, values));
+        c.commit(); // sent, but say the network lost it - sensor 1 never changes again
+
+        int keyframes = 0;
+        for (int t = 1; t <= 3; ++t) {
+            int read = c.prepare(0, 0b11); // nothing due
+            ByteBuffer b = c.encode(enc, t, values);
+            if (b == null) continue;
+            assertEquals(0b11, read);
+            skipHeader(b).getInt();
+            assertEquals(1, b.get());
+            assertEquals(0b11, b.getInt()); // the receiver gets sensor 1 again, even though it wasn't due
+            c.commit();
+            ++keyframes;
+        }
+        assertEquals(1, keyframes);
+    }
+}
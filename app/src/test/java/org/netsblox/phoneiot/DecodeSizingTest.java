@@ -0,0 +1,32 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecodeSizingTest {
+    @Test
+    public void targetScale_fitAndCover() {
+        assertEquals(0.1, DecodeSizing.targetScale(4000, 3000, 400, 400, false), 1e-9); // width limits the fit
+        assertEquals(400.0 / 3000, DecodeSizing.targetScale(4000, 3000, 400, 400, true), 1e-9); // height limits the cover
+        assertEquals(1, DecodeSizing.targetScale(200, 100, 400, 400, true), 0); // never upscaled
+    }
+
+    @Test
+    public void sampleSize_staysAtLeastTarget() {
+        assertEquals(8, DecodeSizing.sampleSize(4000, 3000, 400, 300));
+        assertEquals(4, DecodeSizing.sampleSize(4000, 3000, 501, 300));
+        assertEquals(1, DecodeSizing.sampleSize(100, 100, 100, 100));
+        assertEquals(1, DecodeSizing.sampleSize(100, 100, 200, 200));
+        assertEquals(2, DecodeSizing.sampleSize(100, 1000, 1, 500));
+    }
+
+    @Test
+    public void exifRotation_knownOrientations() {
+        assertEquals(0, DecodeSizing.exifRotation(1));
+        assertEquals(90, DecodeSizing.exifRotation(6));
+        assertEquals(180, DecodeSizing.exifRotation(3));
+        assertEquals(270, DecodeSizing.exifRotation(8));
+        assertEquals(0, DecodeSizing.exifRotation(0)); // undefined
+    }
+}
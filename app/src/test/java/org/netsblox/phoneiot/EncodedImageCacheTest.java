@@ -0,0 +1,67 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncodedImageCacheTest {
+    @Test
+    public void hit_requiresSameGenerationAndParams() {
+        EncodedImageCache<String> cache = new EncodedImageCache<>(1000);
+        byte[] data = new byte[] { 1, 2, 3, 4, 5 };
+        cache.put("a", 3, 60000, data, 4, 0);
+        data[0] = 9; // the cache has its own copy
+
+        EncodedImageCache.Entry e = cache.get("a", 3, 60000);
+        assertNotNull(e);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, e.data);
+        assertNull(cache.get("a", 4, 60000)); // image changed
+        assertNull(cache.get("a", 3, 30000)); // different budget
+        assertNull(cache.get("b", 3, 60000));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void put_replacesOlderGeneration() {
+        EncodedImageCache<String> cache = new EncodedImageCache<>(1000);
+        cache.put("a", 1, 0, new byte[100], 100, 0);
+        cache.put("a", 2, 0, new byte[40], 40, 0);
+        assertEquals(1, cache.size());
+        assertEquals(40, cache.getBytes());
+        assertNull(cache.get("a", 1, 0));
+        assertNotNull(cache.get("a", 2, 0));
+    }
+
+    @Test
+    public void overLimit_evictsLeastRecentlyUsed() {
+        EncodedImageCache<String> cache = new EncodedImageCache<>(300);
+        cache.put("a", 0, 0, new byte[100], 100, 0);
+        cache.put("b", 0, 0, new byte[100], 100, 0);
+        cache.put("c", 0, 0, new byte[100], 100, 0);
+        cache.get("a", 0, 0); // b is now the oldest
+        cache.put("d", 0, 0, new byte[100], 100, 0);
+
+        assertNull(cache.get("b", 0, 0));
+        assertNotNull(cache.get("a", 0, 0));
+        assertNotNull(cache.get("c", 0, 0));
+        assertNotNull(cache.get("d", 0, 0));
+        assertEquals(300, cache.getBytes());
+
+        cache.put("e", 0, 0, new byte[500], 500, 0); // too big to ever keep
+        assertNull(cache.get("e", 0, 0));
+        assertEquals(300, cache.getBytes());
+    }
+
+    @Test
+    public void remove_freesBytes() {
+        EncodedImageCache<String> cache = new EncodedImageCache<>(300);
+        cache.put("a", 0, 0, new byte[100], 100, 0);
+        cache.remove("a");
+        cache.remove("missing");
+        assertEquals(0, cache.getBytes());
+        cache.put("a", 0, 0, new byte[100], 100, 0);
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,74 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncodingSearchTest {
+    // size grows linearly with quality - 100 bytes per step
+    private static EncodingSearch.Probe linear(List<Integer> probed) {
+        return q -> {
+            probed.add(q);
+            return q * 100;
+        };
+    }
+
+    @Test
+    public void smallImage_usesMaxQualityInOneProbe() throws Exception {
+        List<Integer> probed = new ArrayList<>();
+        int[] last = new int[1];
+        assertEquals(95, EncodingSearch.highestQualityWithin(linear(probed), 100000, 40, 95, 6, last));
+        assertEquals(Arrays.asList(95), probed);
+        assertEquals(95, last[0]);
+    }
+
+    @Test
+    public void search_findsHighestFittingQuality() throws Exception {
+        List<Integer> probed = new ArrayList<>();
+        int[] last = new int[1];
+        int q = EncodingSearch.highestQualityWithin(linear(probed), 6150, 40, 95, 10, last); // 61 is the best fit
+        assertEquals(61, q);
+        assertTrue(probed.size() <= 10);
+        assertEquals(40, (int)probed.get(1)); // floor is checked right after the ceiling
+        assertEquals(last[0], (int)probed.get(probed.size() - 1));
+    }
+
+    @Test
+    public void search_isBoundedByProbes() throws Exception {
+        List<Integer> probed = new ArrayList<>();
+        int[] last = new int[1];
+        int q = EncodingSearch.highestQualityWithin(linear(probed), 6150, 40, 95, 4, last);
+        assertEquals(4, probed.size());
+        assertTrue(q >= 40 && q <= 61); // fits, but might not be the best
+    }
+
+    @Test
+    public void search_givesUpIfFloorDoesNotFit() throws Exception {
+        List<Integer> probed = new ArrayList<>();
+        int[] last = new int[1];
+        assertEquals(-1, EncodingSearch.highestQualityWithin(linear(probed), 3000, 40, 95, 6, last));
+        assertEquals(Arrays.asList(95, 40), probed);
+    }
+
+    @Test
+    public void scaleToFit_shrinksByArea() {
+        assertEquals(1, EncodingSearch.scaleToFit(100, 200), 0);
+        assertEquals(0.45, EncodingSearch.scaleToFit(400, 100), 1e-9);
+    }
+
+    @Test
+    public void countColors_stopsAtLimit() {
+        int[] table = new int[1024];
+        int[] flat = new int[10000];
+        for (int i = 0; i < flat.length; ++i) flat[i] = (i / 100) % 3 == 0 ? 0 : 0xff000000 | (i % 7);
+        assertEquals(8, EncodingSearch.countColors(flat, flat.length, 256, table));
+
+        int[] photo = new int[10000];
+        for (int i = 0; i < photo.length; ++i) photo[i] = 0xff000000 | (i * 7919);
+        assertEquals(257, EncodingSearch.countColors(photo, photo.length, 256, table));
+    }
+}
@@ -0,0 +1,143 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FragmentAssemblerTest {
+    private static final SocketAddress PEER = new InetSocketAddress("127.0.0.1", 1975);
+
+    // fragments as they'd be parsed off the wire
+    private static List<ByteBuffer> fragment(FragmentSender s, byte[] data) {
+        int id = s.add(data, 0, data.length, 0);
+        List<ByteBuffer> res = new ArrayList<>();
+        for (int i = 0; i < s.getFragmentCount(data.length); ++i) {
+            ByteBuffer b = ByteBuffer.allocate(s.getFragmentSize(data.length, i));
+            assertTrue(s.write(id, i, b));
+            b.flip();
+            res.add(b);
+        }
+        return res;
+    }
+    private static FragmentAssembler.Message accept(FragmentAssembler a, ByteBuffer f, long now) {
+        int id = f.getInt(0), total = f.getInt(4), offset = f.getInt(8), index = f.getShort(12) & 0xffff, count = f.getShort(14) & 0xffff;
+        return a.accept(PEER, id, total, offset, index, count, f.array(), FragmentSender.HEADER_SIZE, f.limit() - FragmentSender.HEADER_SIZE, now);
+    }
+
+    @Test
+    public void outOfOrder_reassembles() {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        List<ByteBuffer> frags = fragment(new FragmentSender(1373, 1 << 20, 10000, 1), data);
+        Collections.shuffle(frags, new Random(2));
+
+        FragmentAssembler a = new FragmentAssembler(1 << 20, 4, 50, 5000);
+        FragmentAssembler.Message res = null;
+        for (int i = 0; i < frags.size(); ++i) {
+            FragmentAssembler.Message m = accept(a, frags.get(i), i);
+            if (i < frags.size() - 1) assertNull(m);
+            else res = m;
+        }
+        assertNotNull(res);
+        assertEquals(data.length, res.length);
+        assertArrayEquals(data, Arrays.copyOf(res.data, res.length));
+        assertEquals(0, a.getPendingCount());
+    }
+
+    @Test
+    public void duplicatesAndGarbage_areIgnored() {
+        byte[] data = new byte[300];
+        List<ByteBuffer> frags = fragment(new FragmentSender(100, 1 << 20, 10000, 1), data);
+        FragmentAssembler a = new FragmentAssembler(1000, 4, 50, 5000);
+
+        assertNull(accept(a, frags.get(0), 0));
+        assertNull(accept(a, frags.get(0), 0));
+        assertNull(a.accept(PEER, 1, 300, 250, 1, 3, new byte[100], 0, 100, 0)); // runs off the end
+        assertNull(a.accept(PEER, 2, 5000, 0, 0, 50, new byte[100], 0, 100, 0)); // too big
+        assertNull(accept(a, frags.get(1), 0));
+        assertNotNull(accept(a, frags.get(2), 0));
+    }
+
+    @Test
+    public void duplicateAfterCompletion_isIgnored() {
+        byte[] data = new byte[300];
+        List<ByteBuffer> frags = fragment(new FragmentSender(100, 1 << 20, 10000, 1), data);
+        FragmentAssembler a = new FragmentAssembler(1000, 4, 50, 5000);
+        for (int i = 0; i < 2; ++i) assertNull(accept(a, frags.get(i), 0));
+        assertNotNull(accept(a, frags.get(2), 0));
+
+        assertNull(accept(a, frags.get(1), 100)); // retransmit that crossed with the completion
+        assertEquals(0, a.getPendingCount()); // not started over, so nothing to nack
+        List<String> nacks = new ArrayList<>();
+        assertEquals(Long.MAX_VALUE, a.poll(200, (to, id, missing, count) -> nacks.add(id + "")));
+        assertTrue(nacks.isEmpty());
+
+        assertNull(accept(a, frags.get(0), 5000)); // forgotten after the timeout
+        assertEquals(1, a.getPendingCount());
+    }
+
+    @Test
+    public void missingFragments_areNackedThenDropped() {
+        byte[] data = new byte[500];
+        List<ByteBuffer> frags = fragment(new FragmentSender(100, 1 << 20, 10000, 9), data);
+        FragmentAssembler a = new FragmentAssembler(1000, 4, 50, 1000);
+        accept(a, frags.get(0), 0);
+        accept(a, frags.get(2), 10);
+        accept(a, frags.get(4), 20);
+
+        List<String> nacks = new ArrayList<>();
+        FragmentAssembler.NackSink sink = (to, id, missing, count) -> nacks.add(id + ":" + Arrays.toString(Arrays.copyOf(missing, count)));
+        assertEquals(70, a.poll(30, sink)); // quiet for 50 after the last fragment
+        assertTrue(nacks.isEmpty());
+        assertEquals(120, a.poll(70, sink));
+        assertEquals(Arrays.asList("9:[1, 3]"), nacks);
+
+        assertNull(accept(a, frags.get(3), 100)); // repair trickles in
+        a.poll(150, sink);
+        assertEquals("9:[1]", nacks.get(1));
+
+        for (long t = 200; t <= 1100; t += 50) a.poll(t, sink);
+        assertEquals(5, nacks.size()); // gives up asking
+        assertEquals(0, a.getPendingCount()); // and eventually drops it
+        assertEquals(Long.MAX_VALUE, a.poll(2000, sink));
+    }
+
+    @Test
+    public void buffers_arePooled() {
+        byte[] data = new byte[200];
+        FragmentSender s = new FragmentSender(100, 1 << 20, 10000, 1);
+        FragmentAssembler a = new FragmentAssembler(1 << 20, 4, 50, 5000);
+
+        FragmentAssembler.Message first = null;
+        for (ByteBuffer f : fragment(s, data)) first = accept(a, f, 0);
+        byte[] buffer = first.data;
+        a.release(first);
+
+        FragmentAssembler.Message second = null;
+        for (ByteBuffer f : fragment(s, data)) second = accept(a, f, 0);
+        assertSame(buffer, second.data);
+    }
+
+    @Test
+    public void tooManyPending_dropsOldest() {
+        FragmentSender s = new FragmentSender(100, 1 << 20, 10000, 1);
+        FragmentAssembler a = new FragmentAssembler(1 << 20, 2, 50, 5000);
+        List<List<ByteBuffer>> msgs = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            msgs.add(fragment(s, new byte[200]));
+            accept(a, msgs.get(i).get(0), i);
+        }
+        assertEquals(2, a.getPendingCount());
+        assertNull(accept(a, msgs.get(0).get(1), 10)); // was dropped, so this starts over
+        assertNotNull(accept(a, msgs.get(2).get(1), 10));
+    }
+}
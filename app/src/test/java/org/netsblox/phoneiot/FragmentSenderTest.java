@@ -0,0 +1,78 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FragmentSenderTest {
+    @Test
+    public void write_splitsIntoChunks() {
+        FragmentSender s = new FragmentSender(100, 1 << 20, 10000, 7);
+        byte[] data = new byte[250];
+        for (int i = 0; i < data.length; ++i) data[i] = (byte)i;
+
+        int id = s.add(data, 0, data.length, 0);
+        assertEquals(7, id);
+        assertEquals(3, s.getFragmentCount(data.length));
+        assertEquals(FragmentSender.HEADER_SIZE + 50, s.getFragmentSize(data.length, 2));
+
+        ByteBuffer b = ByteBuffer.allocate(s.getFragmentSize(data.length, 2));
+        assertTrue(s.write(id, 2, b));
+        assertFalse(b.hasRemaining());
+        b.flip();
+        assertEquals(id, b.getInt());
+        assertEquals(250, b.getInt());
+        assertEquals(200, b.getInt());
+        assertEquals(2, b.getShort());
+        assertEquals(3, b.getShort());
+        assertEquals((byte)200, b.get());
+
+        assertFalse(s.write(id, 3, ByteBuffer.allocate(200)));
+        assertFalse(s.write(id + 1, 0, ByteBuffer.allocate(200)));
+    }
+
+    @Test
+    public void oldMessages_areEvicted() {
+        FragmentSender s = new FragmentSender(100, 1000, 5000, 1);
+        int a = s.add(new byte[600], 0, 600, 0);
+        int b = s.add(new byte[600], 0, 600, 10); // over the byte budget - a goes
+        assertEquals(-1, s.getLength(a));
+        assertEquals(600, s.getLength(b));
+
+        int c = s.add(new byte[10], 0, 10, 6000); // b is too old now
+        assertEquals(-1, s.getLength(b));
+        assertEquals(10, s.getLength(c));
+
+        int d = s.add(new byte[5000], 0, 5000, 6001); // over budget by itself, but the newest is always kept
+        assertEquals(-1, s.getLength(c));
+        assertEquals(5000, s.getLength(d));
+    }
+
+    @Test
+    public void write_heldMessageSurvivesEviction() {
+        FragmentSender s = new FragmentSender(100, 500, 5000, 1);
+        byte[] data = new byte[600];
+        data[150] = 42;
+        int a = s.add(data, 0, data.length, 0);
+        s.add(new byte[600], 0, 600, 10); // evicts a, which is still being paced out
+        assertFalse(s.write(a, 1, ByteBuffer.allocate(200)));
+
+        ByteBuffer b = ByteBuffer.allocate(s.getFragmentSize(data.length, 1));
+        assertTrue(s.write(a, data, 0, data.length, 1, b));
+        b.flip();
+        assertEquals(a, b.getInt());
+        assertEquals(600, b.getInt());
+        assertEquals(100, b.getInt());
+        b.position(FragmentSender.HEADER_SIZE + 50);
+        assertEquals(42, b.get());
+    }
+
+    @Test
+    public void ids_skipZero() {
+        FragmentSender s = new FragmentSender(100, 1000, 5000, -1);
+        assertEquals(-1, s.add(new byte[1], 0, 1, 0));
+        assertEquals(1, s.add(new byte[1], 0, 1, 0));
+    }
+}
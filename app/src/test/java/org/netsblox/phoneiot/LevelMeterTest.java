@@ -0,0 +1,49 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LevelMeterTest {
+    @Test
+    public void fullScaleSquareWave_isZeroDecibels() {
+        LevelMeter meter = new LevelMeter(100);
+        short[] pcm = new short[100];
+        for (int i = 0; i < pcm.length; ++i) pcm[i] = (short)(i % 2 == 0 ? 32767 : -32768);
+
+        double[] out = new double[3];
+        assertTrue(meter.process(pcm, 0, pcm.length, out));
+        assertEquals(1.0, out[0], 1e-9);
+        assertEquals(1.0, out[1], 1e-4);
+        assertEquals(0.0, out[2], 1e-3);
+    }
+
+    @Test
+    public void sine_hasExpectedRms() {
+        LevelMeter meter = new LevelMeter(4410);
+        short[] pcm = new short[4410];
+        for (int i = 0; i < pcm.length; ++i) pcm[i] = (short)(16384 * Math.sin(2 * Math.PI * 441 * i / 44100.0));
+
+        double[] out = new double[3];
+        assertTrue(meter.process(pcm, 0, pcm.length, out));
+        assertEquals(0.5, out[0], 1e-3);
+        assertEquals(0.5 / Math.sqrt(2), out[1], 1e-3);
+        assertEquals(20 * Math.log10(0.5 / Math.sqrt(2)), out[2], 0.01);
+    }
+
+    @Test
+    public void windows_spanChunks() {
+        LevelMeter meter = new LevelMeter(10);
+        short[] pcm = new short[7];
+        double[] out = new double[] { -1, -1, -1 };
+
+        assertFalse(meter.process(pcm, 0, 7, out)); // 7 of 10
+        assertEquals(-1, out[0], 0); // untouched until a window finishes
+        pcm[6] = 3277;
+        assertTrue(meter.process(pcm, 0, 7, out)); // finishes the window at index 2, then 4 more into the next
+        assertEquals(0, out[0], 0);
+        assertEquals(LevelMeter.MIN_DECIBELS, out[2], 0);
+        assertTrue(meter.process(pcm, 0, 7, out)); // 4 + 6 finishes another, which includes the loud sample
+        assertEquals(0.1, out[0], 1e-4);
+    }
+}
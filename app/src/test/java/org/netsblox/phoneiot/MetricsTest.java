@@ -0,0 +1,80 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    @Test
+    public void histogram_bucketsAndQuantiles() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int i = 0; i < 90; ++i) h.record(50);  // bucket 0 (<= 100us)
+        for (int i = 0; i < 9; ++i) h.record(700);  // bucket 3 (<= 1000us)
+        h.record(5000000);                          // overflow
+
+        assertEquals(100, h.getCount());
+        assertEquals(90 * 50 + 9 * 700 + 5000000, h.getSum());
+        assertEquals(5000000, h.getMax());
+        assertEquals(90, h.getBucket(0));
+        assertEquals(9, h.getBucket(3));
+        assertEquals(1, h.getBucket(Metrics.BUCKET_COUNT - 1));
+
+        assertEquals(100, h.getQuantile(0.5));
+        assertEquals(1000, h.getQuantile(0.99));
+        assertEquals(5000000, h.getQuantile(1));
+    }
+
+    @Test
+    public void histogram_concurrentRecording() throws Exception {
+        Metrics.Histogram h = new Metrics.Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int id = t;
+            threads[t] = new Thread(() -> { for (int i = 0; i < 100000; ++i) h.record(id * 1000 + i % 7); });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(400000, h.getCount());
+        assertEquals(3006, h.getMax());
+    }
+
+    @Test
+    public void encode_fitsSizeAndSkipsUnusedOpcodes() {
+        Metrics m = new Metrics();
+        m.increment(Metrics.RECEIVED);
+        m.increment(Metrics.RECEIVED);
+        m.increment(Metrics.AUTH_FAILURES);
+        m.request((byte)'u').record(12000);
+        m.request((byte)'i').record(300);
+
+        ByteBuffer b = ByteBuffer.allocate(m.getEncodedSize());
+        m.encode(b, 255);
+        assertEquals(b.capacity(), b.position());
+
+        b.flip();
+        b.getLong(); // uptime
+        assertEquals(Metrics.COUNTER_COUNT, b.get());
+        assertEquals(2, b.getLong());
+        assertEquals(1, b.getLong());
+        b.position(b.position() + 8 * (Metrics.COUNTER_COUNT - 2) + 3 * Metrics.Histogram.ENCODED_SIZE);
+        assertEquals(Metrics.BUCKET_COUNT, b.get());
+        assertEquals(2, b.get());
+        assertEquals('i', b.get()); // in opcode order
+        assertEquals(1, b.getLong());
+        b.position(b.position() + Metrics.Histogram.ENCODED_SIZE - 8);
+        assertEquals('u', b.get());
+        assertEquals(1, b.getLong());
+        assertEquals(12000, b.getLong());
+    }
+
+    @Test
+    public void encode_respectsOpcodeLimit() {
+        Metrics m = new Metrics();
+        for (char c = 'a'; c <= 'z'; ++c) m.request((byte)c).record(10);
+        ByteBuffer b = ByteBuffer.allocate(m.getEncodedSize());
+        m.encode(b, 3);
+        assertEquals(3, b.get(8 + 1 + 8 * Metrics.COUNTER_COUNT + 3 * Metrics.Histogram.ENCODED_SIZE + 1));
+    }
+}
@@ -0,0 +1,119 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OrientationFilterTest {
+    private static final float[] FLAT = new float[] { 0, 0, 9.81f };
+    private static final float[] NORTH_ALONG_Y = new float[] { 0, 30, -40 }; // device y points north (field dips down)
+    private static final float[] NORTH_ALONG_X = new float[] { 30, 0, -40 }; // device y points west
+    private static final long MS = 1000000;
+
+    @Test
+    public void accelAndMagnet_matchSensorManagerConventions() {
+        OrientationFilter f = new OrientationFilter();
+        double[] out = new double[3];
+        assertFalse(f.updateAccelerometer(FLAT, 0));
+        assertFalse(f.getOrientation(out)); // need both
+        assertTrue(f.updateMagnetometer(NORTH_ALONG_Y, 0));
+        assertTrue(f.getOrientation(out));
+        assertArrayEquals(new double[] { 0, 0, 0 }, out, 1e-9);
+
+        assertTrue(f.updateMagnetometer(NORTH_ALONG_X, 1));
+        f.getOrientation(out);
+        assertArrayEquals(new double[] { -Math.PI / 2, 0, 0 }, out, 1e-9);
+
+        assertTrue(f.updateAccelerometer(new float[] { 0, 9.81f, 0 }, 2)); // standing up on its bottom edge
+        f.getOrientation(out);
+        assertEquals(-Math.PI / 2, out[1], 1e-9);
+    }
+
+    @Test
+    public void freeFall_keepsLastOrientation() {
+        OrientationFilter f = new OrientationFilter();
+        f.updateAccelerometer(FLAT, 0);
+        f.updateMagnetometer(NORTH_ALONG_X, 0);
+        assertFalse(f.updateAccelerometer(new float[] { 0, 0, 0.1f }, 1));
+        double[] out = new double[3];
+        f.getOrientation(out);
+        assertEquals(-Math.PI / 2, out[0], 1e-9);
+    }
+
+    @Test
+    public void gyroscope_integratesRotation() {
+        OrientationFilter f = new OrientationFilter();
+        f.setTimeConstant(Double.POSITIVE_INFINITY); // gyroscope only
+        f.updateAccelerometer(FLAT, 0);
+        f.updateMagnetometer(NORTH_ALONG_Y, 0);
+
+        float[] w = new float[] { 0, 0, (float)(Math.PI / 2) }; // counterclockwise (seen from above) at 90 deg/s
+        for (int i = 0; i <= 100; ++i) assertTrue(f.updateGyroscope(w, i * 10 * MS));
+
+        double[] out = new double[3];
+        f.getOrientation(out);
+        assertEquals(-Math.PI / 2, out[0], 1e-6); // 1 second later, device y points west
+        assertEquals(0, out[1], 1e-6);
+        assertEquals(0, out[2], 1e-6);
+    }
+
+    @Test
+    public void gyroscope_driftIsCorrectedByAbsolute() {
+        OrientationFilter f = new OrientationFilter();
+        f.updateAccelerometer(FLAT, 0);
+        f.updateMagnetometer(NORTH_ALONG_Y, 0);
+        f.updateGyroscope(new float[3], 0);
+
+        float[] drift = new float[] { 0, 0, 0.2f }; // biased gyroscope on a stationary device
+        double[] out = new double[3];
+        for (int i = 1; i <= 500; ++i) {
+            long t = i * 10 * MS;
+            assertFalse(f.updateMagnetometer(NORTH_ALONG_Y, t)); // gyroscope is running, so absolute samples are folded in later
+            assertTrue(f.updateGyroscope(drift, t));
+        }
+        f.getOrientation(out);
+        assertEquals(0, out[0], 0.2 * OrientationFilter.DEFAULT_TIME_CONSTANT * 1.1); // bounded by bias * time constant, rather than growing forever
+    }
+
+    @Test
+    public void gyroscope_smoothsNoisyAbsolute() {
+        OrientationFilter smooth = new OrientationFilter(), raw = new OrientationFilter();
+        Random rand = new Random(3);
+        float[] magnet = new float[3], zero = new float[3];
+        double[] a = new double[3], b = new double[3];
+        double smoothSq = 0, rawSq = 0;
+        for (int i = 0; i < 1000; ++i) {
+            long t = i * 10 * MS;
+            for (int k = 0; k < 3; ++k) magnet[k] = NORTH_ALONG_Y[k] + (float)(3 * rand.nextGaussian());
+            for (OrientationFilter f : new OrientationFilter[] { smooth, raw }) {
+                f.updateAccelerometer(FLAT, t);
+                f.updateMagnetometer(magnet, t);
+            }
+            smooth.updateGyroscope(zero, t);
+
+            if (i < 100) continue; // let it settle
+            smooth.getOrientation(a);
+            raw.getOrientation(b);
+            smoothSq += a[0] * a[0];
+            rawSq += b[0] * b[0];
+        }
+        assertTrue(smoothSq * 10 < rawSq);
+    }
+
+    @Test
+    public void gyroscopeGap_restartsFromAbsolute() {
+        OrientationFilter f = new OrientationFilter();
+        f.setTimeConstant(Double.POSITIVE_INFINITY);
+        f.updateAccelerometer(FLAT, 0);
+        f.updateMagnetometer(NORTH_ALONG_Y, 0);
+        f.updateGyroscope(new float[3], 0);
+        f.updateGyroscope(new float[] { 0, 0, 1 }, 100 * MS);
+
+        assertTrue(f.updateMagnetometer(NORTH_ALONG_X, 2000 * MS)); // gyroscope went quiet - absolute is used directly again
+        double[] out = new double[3];
+        f.getOrientation(out);
+        assertEquals(-Math.PI / 2, out[0], 1e-9);
+    }
+}
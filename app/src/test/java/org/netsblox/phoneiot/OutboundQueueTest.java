@@ -0,0 +1,90 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+    @Test
+    public void dropOldest_keepsNewest() {
+        OutboundQueue<Integer> q = new OutboundQueue<>(4, 4, 100);
+        for (int i = 0; i < 10; ++i) q.offer(i, OutboundQueue.Policy.DROP_OLDEST);
+
+        assertEquals(10, q.getEnqueued());
+        assertEquals(6, q.getDropped());
+        for (int i = 6; i < 10; ++i) assertEquals(Integer.valueOf(i), q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void neverDrop_overflowsAndComesFirst() {
+        OutboundQueue<Integer> q = new OutboundQueue<>(4, 4, 100);
+        q.offer(-1, OutboundQueue.Policy.DROP_OLDEST);
+        for (int i = 0; i < 10; ++i) q.offer(i, OutboundQueue.Policy.NEVER_DROP);
+
+        assertEquals(0, q.getDropped());
+        assertEquals(11, q.depth());
+        for (int i = 0; i < 10; ++i) assertEquals(Integer.valueOf(i), q.poll());
+        assertEquals(Integer.valueOf(-1), q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void concurrentProducers_loseNothingReliable() throws Exception {
+        final int PRODUCERS = 4, PER_PRODUCER = 20000;
+        OutboundQueue<Integer> q = new OutboundQueue<>(16, 64, PRODUCERS * PER_PRODUCER);
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int t = 0; t < PRODUCERS; ++t) {
+            final int base = t * PER_PRODUCER;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < PER_PRODUCER; ++i) {
+                    q.offer(base + i, OutboundQueue.Policy.NEVER_DROP);
+                    q.offer(-1, OutboundQueue.Policy.DROP_OLDEST);
+                }
+            });
+            threads[t].start();
+        }
+
+        Set<Integer> seen = new HashSet<>();
+        int lossy = 0;
+        for (boolean alive = true; alive || q.depth() > 0; ) {
+            alive = false;
+            for (Thread t : threads) alive |= t.isAlive();
+            for (Integer v; (v = q.poll()) != null; ) {
+                if (v < 0) ++lossy;
+                else assertTrue(seen.add(v));
+            }
+        }
+
+        assertEquals(PRODUCERS * PER_PRODUCER, seen.size());
+        assertEquals(PRODUCERS * PER_PRODUCER, lossy + q.getDropped());
+    }
+
+    @Test
+    public void neverDrop_keepsOrderAcrossOverflow() {
+        OutboundQueue<Integer> q = new OutboundQueue<>(4, 4, 100);
+        for (int i = 0; i < 6; ++i) q.offer(i, OutboundQueue.Policy.NEVER_DROP); // 4 and 5 spill
+        assertEquals(Integer.valueOf(0), q.poll());
+        assertEquals(Integer.valueOf(1), q.poll());
+        q.offer(6, OutboundQueue.Policy.NEVER_DROP); // the ring has room, but this must still come after the overflow
+        for (int i = 2; i <= 6; ++i) assertEquals(Integer.valueOf(i), q.poll());
+        q.offer(7, OutboundQueue.Policy.NEVER_DROP); // overflow drained - back to the ring
+        assertEquals(Integer.valueOf(7), q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void neverDrop_overflowIsBounded() {
+        OutboundQueue<Integer> q = new OutboundQueue<>(4, 4, 3);
+        int accepted = 0;
+        for (int i = 0; i < 10; ++i) if (q.offer(i, OutboundQueue.Policy.NEVER_DROP)) ++accepted;
+        assertEquals(7, accepted);
+        assertEquals(3, q.getDropped());
+        assertEquals(7, q.depth());
+        for (int i = 0; i < 7; ++i) assertEquals(Integer.valueOf(i), q.poll());
+        assertNull(q.poll());
+    }
+}
@@ -0,0 +1,64 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PacketEncoderTest {
+    private static final byte[] MAC = { 1, 2, 3, 4, 5, 6 };
+    private static final double[][] SENSORS = {
+            { 1.0, 2.0, 3.0 }, { 4.0, 5.0, 6.0, 7.0 }, null, { 8.0 },
+    };
+
+    private static ByteBuffer encode(PacketEncoder enc, int timestamp) {
+        enc.begin((byte)'Q').putInt(timestamp);
+        for (double[] vals : SENSORS) {
+            if (vals != null) enc.putVector(vals);
+            else enc.putByte(0);
+        }
+        return enc.finish();
+    }
+
+    @Test
+    public void layout_isCorrect() {
+        ByteBuffer b = encode(new PacketEncoder(MAC, 1024), 0x01020304);
+
+        assertEquals(PacketEncoder.HEADER_SIZE + 1 + 4 + (1 + 24) + (1 + 32) + 1 + (1 + 8), b.remaining());
+        for (int i = 0; i < 6; ++i) assertEquals(MAC[i], b.get());
+        assertEquals(0, b.getInt());
+        assertEquals('Q', b.get());
+        assertEquals(0x01020304, b.getInt());
+        assertEquals(3, b.get());
+        assertEquals(1.0, b.getDouble(), 0);
+        assertEquals(2.0, b.getDouble(), 0);
+        assertEquals(3.0, b.getDouble(), 0);
+        assertEquals(4, b.get());
+        for (int i = 0; i < 4; ++i) assertEquals(4.0 + i, b.getDouble(), 0);
+        assertEquals(0, b.get());
+        assertEquals(1, b.get());
+        assertEquals(8.0, b.getDouble(), 0);
+        assertFalse(b.hasRemaining());
+    }
+
+    @Test
+    public void reuse_isAllocationFree() {
+        java.lang.management.ThreadMXBean raw = ManagementFactory.getThreadMXBean();
+        org.junit.Assume.assumeTrue(raw instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)raw;
+        long thread = Thread.currentThread().getId();
+
+        PacketEncoder enc = new PacketEncoder(MAC, 1024);
+        int sum = 0;
+        for (int i = 0; i < 100000; ++i) sum += encode(enc, i).limit(); // warm up (let the jit settle)
+
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; ++i) sum += encode(enc, i).limit();
+        long after = bean.getThreadAllocatedBytes(thread);
+
+        assertTrue(sum > 0);
+        assertEquals(0, after - before);
+    }
+}
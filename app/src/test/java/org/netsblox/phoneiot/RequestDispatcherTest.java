@@ -0,0 +1,47 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RequestDispatcherTest {
+    @Test
+    public void dispatch_usesOpcodeTable() throws Exception {
+        byte[] buf = new byte[64];
+        RequestDispatcher.Request req = new RequestDispatcher.Request(buf);
+        RequestDispatcher dispatcher = new RequestDispatcher();
+        int[] hits = new int[1];
+        dispatcher.register('e', r -> hits[0] += r.length());
+
+        buf[0] = 'e';
+        req.reset(13, null);
+        assertTrue(dispatcher.dispatch(req));
+        assertEquals(13, hits[0]);
+
+        buf[0] = (byte)0xff; // high opcodes must not index out of bounds
+        assertFalse(dispatcher.dispatch(req));
+    }
+
+    @Test
+    public void request_parsesBigEndianFields() {
+        byte[] buf = new byte[64];
+        ByteBuffer.wrap(buf).put((byte)'e').putLong(0x1234).putFloat(0.5f).putInt(-7).put((byte)200).put("hi".getBytes());
+        SocketAddress from = new InetSocketAddress("127.0.0.1", 1976);
+
+        RequestDispatcher.Request req = new RequestDispatcher.Request(buf);
+        req.reset(1 + 8 + 4 + 4 + 1 + 2, from);
+
+        assertEquals('e', req.opcode());
+        assertSame(from, req.from());
+        assertEquals(0x1234, req.getLong(1));
+        assertEquals(0.5f, req.getFloat(9), 0);
+        assertEquals(-7, req.getInt(13));
+        assertEquals(200, req.getU8(17));
+        assertEquals("hi", req.getString(18));
+        assertArrayEquals("hi".getBytes(), req.copyRange(18, 20));
+    }
+}
@@ -0,0 +1,72 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SampleRingTest {
+    @Test
+    public void encode_returnsSamplesSince() {
+        SampleRing ring = new SampleRing(2, 8);
+        for (int i = 0; i < 5; ++i) ring.add(new float[] { i, -i }, 2.0, 100 + i);
+        assertEquals(5, ring.getNextSequence());
+        assertEquals(3, ring.countSince(2));
+
+        ByteBuffer b = ByteBuffer.allocate(18 + 3 * ring.getEncodedSampleSize());
+        ring.encode(b, 2, 100);
+        b.flip();
+        assertEquals(2, b.getLong());
+        assertEquals(5, b.getLong());
+        assertEquals(3, b.getShort());
+        for (int i = 2; i < 5; ++i) {
+            assertEquals(100 + i, b.getLong());
+            assertEquals(2 * i, b.getFloat(), 0);
+            assertEquals(-2 * i, b.getFloat(), 0);
+        }
+        assertFalse(b.hasRemaining());
+    }
+
+    @Test
+    public void overwrittenSamples_areSkipped() {
+        SampleRing ring = new SampleRing(1, 4);
+        for (int i = 0; i < 10; ++i) ring.add(new float[] { i }, 1.0, i);
+        assertEquals(6, ring.getOldestSequence());
+        assertEquals(4, ring.countSince(0));
+
+        ByteBuffer b = ByteBuffer.allocate(64);
+        ring.encode(b, 0, 2); // asked for lost data and capped the count
+        b.flip();
+        assertEquals(6, b.getLong());
+        assertEquals(10, b.getLong());
+        assertEquals(2, b.getShort());
+        assertEquals(6, b.getLong());
+        assertEquals(6, b.getFloat(), 0);
+        assertEquals(7, b.getLong());
+        assertEquals(7, b.getFloat(), 0);
+        assertFalse(b.hasRemaining());
+
+        b.clear();
+        ring.encode(b, 10, 100); // caught up
+        b.flip();
+        assertEquals(10, b.getLong());
+        assertEquals(10, b.getLong());
+        assertEquals(0, b.getShort());
+        assertEquals(0, ring.countSince(10));
+        assertEquals(0, ring.countSince(50)); // asked for the future
+    }
+
+    @Test
+    public void missingValues_areZeroed() {
+        SampleRing ring = new SampleRing(3, 2);
+        ring.add(new float[] { 1 }, 1.0, 0);
+        ByteBuffer b = ByteBuffer.allocate(64);
+        ring.encode(b, 0, 1);
+        b.flip();
+        b.position(8 + 8 + 2 + 8);
+        assertEquals(1, b.getFloat(), 0);
+        assertEquals(0, b.getFloat(), 0);
+        assertEquals(0, b.getFloat(), 0);
+    }
+}
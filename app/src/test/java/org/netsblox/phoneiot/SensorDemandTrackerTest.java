@@ -0,0 +1,50 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorDemandTrackerTest {
+    @Test
+    public void touch_expiresAfterIdleTimeout() {
+        SensorDemandTracker d = new SensorDemandTracker(16, 1000);
+        assertEquals(0, d.getActive());
+
+        assertTrue(d.touch(3, 0)); // first use activates
+        assertFalse(d.touch(3, 500)); // already active
+        assertEquals(1 << 3, d.getActive());
+
+        assertEquals(0, d.expire(1499)); // timeout is from the last use
+        assertEquals(1 << 3, d.expire(1500));
+        assertEquals(0, d.getActive());
+        assertTrue(d.touch(3, 2000));
+    }
+
+    @Test
+    public void references_keepSensorsActive() {
+        SensorDemandTracker d = new SensorDemandTracker(16, 1000);
+        assertTrue(d.acquire(5, 0));
+        assertFalse(d.acquire(5, 0));
+        assertEquals(0, d.expire(100000));
+
+        d.release(5, 200000);
+        assertEquals(0, d.expire(200500)); // still one reference left
+        d.release(5, 300000);
+        assertEquals(0, d.expire(300999));
+        assertEquals(1 << 5, d.expire(301000));
+
+        d.release(5, 400000); // extra releases are harmless
+        assertTrue(d.acquire(5, 400000));
+        assertEquals(0, d.expire(500000));
+    }
+
+    @Test
+    public void idleTimeout_isConfigurable() {
+        SensorDemandTracker d = new SensorDemandTracker(4, 1000);
+        d.touch(0, 0);
+        d.touch(1, 0);
+        d.setIdleTimeout(10);
+        assertEquals(0b11, d.expire(10));
+        assertFalse(d.isActive(0));
+    }
+}
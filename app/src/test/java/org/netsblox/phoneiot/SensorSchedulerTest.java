@@ -0,0 +1,89 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SensorSchedulerTest {
+    @Test
+    public void sensors_useIndependentPeriods() {
+        SensorScheduler s = new SensorScheduler(16);
+        assertEquals(Long.MAX_VALUE, s.nextDue());
+
+        s.setPeriod(0, 20, 0);    // 50 Hz
+        s.setPeriod(11, 5000, 0); // 0.2 Hz
+        assertEquals(0, s.nextDue());
+        assertEquals((1 << 0) | (1 << 11), s.pollDue(0)); // new subscriptions are due right away
+
+        int fast = 0, slow = 0;
+        for (long now = 1; now <= 10000; ++now) {
+            int due = s.pollDue(now);
+            if ((due & (1 << 0)) != 0) ++fast;
+            if ((due & (1 << 11)) != 0) ++slow;
+            assertEquals(0, due & ~((1 << 0) | (1 << 11)));
+        }
+        assertEquals(500, fast);
+        assertEquals(2, slow);
+    }
+
+    @Test
+    public void fallingBehind_skipsMissedPeriods() {
+        SensorScheduler s = new SensorScheduler(4);
+        s.setPeriod(2, 10, 0);
+        assertEquals(1 << 2, s.pollDue(0));
+        assertEquals(1 << 2, s.pollDue(1000)); // only emitted once, not 100 times
+        assertEquals(1010, s.nextDue());
+    }
+
+    @Test
+    public void unsubscribe_removesSensor() {
+        SensorScheduler s = new SensorScheduler(4);
+        s.setPeriod(1, 10, 0);
+        s.setPeriod(3, 30, 0);
+        s.pollDue(0);
+        assertEquals((1 << 1) | (1 << 3), s.getSubscribed());
+        s.setPeriod(1, 0, 5);
+        assertEquals(0, s.getPeriod(1));
+        assertEquals(1 << 3, s.getSubscribed());
+        assertEquals(30, s.nextDue());
+        assertEquals(1 << 3, s.pollDue(30));
+
+        s.clear();
+        assertTrue(s.isEmpty());
+        assertEquals(0, s.getSubscribed());
+        assertEquals(0, s.pollDue(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void heap_matchesBruteForce() {
+        Random rand = new Random(1234);
+        SensorScheduler s = new SensorScheduler(32);
+        long[] period = new long[32], due = new long[32];
+
+        for (long now = 0; now < 20000; now += 1 + rand.nextInt(7)) {
+            if (rand.nextInt(10) == 0) {
+                int sensor = rand.nextInt(32);
+                long p = rand.nextInt(4) == 0 ? 0 : 1 + rand.nextInt(200);
+                s.setPeriod(sensor, p, now);
+                if (p == 0) period[sensor] = 0;
+                else if (period[sensor] == 0) { period[sensor] = p; due[sensor] = now; }
+                else { period[sensor] = p; due[sensor] = Math.min(due[sensor], now + p); }
+            }
+
+            int expected = 0;
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < 32; ++i) {
+                if (period[i] == 0) continue;
+                if (due[i] <= now) {
+                    expected |= 1 << i;
+                    due[i] = due[i] + period[i] > now ? due[i] + period[i] : now + period[i];
+                }
+                next = Math.min(next, due[i]);
+            }
+            assertEquals(expected, s.pollDue(now));
+            assertEquals(next, s.nextDue());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SensorSnapshotTest {
+    @Test
+    public void write_thenRead() {
+        SensorSnapshot s = new SensorSnapshot(3);
+        double[] dest = new double[3];
+        assertEquals(0, s.read(dest));
+
+        s.write(new float[] { 1, 2 }, 10.0, 1234); // missing values are zeroed
+        assertEquals(1, s.read(dest));
+        assertArrayEquals(new double[] { 10, 20, 0 }, dest, 0);
+        assertEquals(1234, s.getTimestamp());
+
+        s.write(new double[] { 4, 5, 6, 7 }, 5678);
+        assertEquals(2, s.read(dest));
+        assertArrayEquals(new double[] { 4, 5, 6 }, dest, 0);
+        assertEquals(5678, s.getTimestamp());
+        assertEquals(2, s.getSequence());
+    }
+
+    @Test
+    public void concurrentReads_areNeverTorn() throws Exception {
+        SensorSnapshot s = new SensorSnapshot(4);
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<String> failure = new AtomicReference<>(null);
+
+        Thread writer = new Thread(() -> {
+            double[] v = new double[4];
+            for (int i = 1; i <= 2000000; ++i) {
+                for (int j = 0; j < 4; ++j) v[j] = i;
+                s.write(v, i);
+            }
+            done.set(true);
+        });
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; ++r) {
+            readers[r] = new Thread(() -> {
+                double[] dest = new double[4];
+                long lastSeq = 0;
+                while (!done.get()) {
+                    long seq = s.read(dest);
+                    if (seq < lastSeq) failure.set("sequence went backwards");
+                    lastSeq = seq;
+                    for (int j = 1; j < 4; ++j) {
+                        if (dest[j] != dest[0]) failure.set("torn read: " + dest[0] + " vs " + dest[j]);
+                    }
+                    if (seq != 0 && dest[0] != seq) failure.set("sequence " + seq + " doesn't match sample " + dest[0]);
+                }
+            });
+        }
+
+        for (Thread t : readers) t.start();
+        writer.start();
+        writer.join();
+        for (Thread t : readers) t.join();
+
+        assertNull(failure.get());
+        assertEquals(2000000, s.getSequence());
+    }
+}
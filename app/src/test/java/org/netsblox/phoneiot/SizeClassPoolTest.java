@@ -0,0 +1,57 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SizeClassPoolTest {
+    @Test
+    public void sizeClass_roundsUp() {
+        assertEquals(4096, SizeClassPool.sizeClass(1));
+        assertEquals(4096, SizeClassPool.sizeClass(4096));
+        assertEquals(6144, SizeClassPool.sizeClass(4097));
+        assertEquals(8192, SizeClassPool.sizeClass(6145));
+        assertEquals(12288, SizeClassPool.sizeClass(10000));
+    }
+
+    @Test
+    public void take_prefersNewestThatFits() {
+        SizeClassPool<String> pool = new SizeClassPool<>();
+        pool.put("small", 40000);
+        pool.put("old", 40000 * 4);
+        pool.put("new", 40000 * 4);
+        assertEquals("new", pool.take(40000 * 4));
+        assertEquals("old", pool.take(40000 * 3)); // same class
+        assertNull(pool.take(40001)); // same class as small, but small doesn't fit
+        assertEquals("small", pool.take(30000));
+        assertEquals(0, pool.getBytes());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void take_limitsWaste() {
+        SizeClassPool<String> pool = new SizeClassPool<>();
+        pool.put("huge", 1000000);
+        assertNull(pool.take(100000));
+        assertEquals("huge", pool.take(600000));
+    }
+
+    @Test
+    public void trim_dropsOldestFirst() {
+        SizeClassPool<String> pool = new SizeClassPool<>();
+        pool.put("a", 100000);
+        pool.put("b", 5000);
+        pool.put("c", 100000);
+        List<String> dropped = new ArrayList<>();
+        pool.trim(110000, dropped::add);
+        assertEquals(1, dropped.size());
+        assertEquals("a", dropped.get(0));
+        pool.trim(0, dropped::add);
+        assertEquals("b", dropped.get(1));
+        assertEquals("c", dropped.get(2));
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,104 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectrumAnalyzerTest {
+    private static final int RATE = 44100;
+    private static final int N = 1024;
+
+    @Test
+    public void fft_matchesNaiveDft() {
+        Random rand = new Random(42);
+        int n = 64;
+        double[] re = new double[n], im = new double[n], x = new double[n];
+        for (int i = 0; i < n; ++i) re[i] = x[i] = rand.nextDouble() - 0.5;
+        new FFT(n).transform(re, im);
+
+        for (int k = 0; k < n; ++k) {
+            double sr = 0, si = 0;
+            for (int t = 0; t < n; ++t) {
+                sr += x[t] * Math.cos(-2 * Math.PI * k * t / n);
+                si += x[t] * Math.sin(-2 * Math.PI * k * t / n);
+            }
+            assertEquals(sr, re[k], 1e-9);
+            assertEquals(si, im[k], 1e-9);
+        }
+    }
+
+    @Test
+    public void sine_findsDominantFrequencyAndBand() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(N, RATE, 8, 50);
+        double[] samples = new double[N];
+        for (double freq : new double[] { 350, 1500, 3150.5 }) { // each well inside a band (edges are 50, 107, 229, 490, 1049, 2245, ...)
+            for (int i = 0; i < N; ++i) samples[i] = Math.sin(2 * Math.PI * freq * i / RATE);
+            double[] out = new double[a.getOutputSize()];
+            a.analyze(samples, out);
+
+            assertEquals(freq, out[0], RATE / (double)N * 0.1); // within a tenth of a bin
+
+            double total = 0, max = 0;
+            for (int b = 1; b < out.length; ++b) {
+                total += out[b];
+                max = Math.max(max, out[b]);
+            }
+            assertEquals(0.5, total, 0.01); // full scale sine has a mean square of 1/2
+            assertTrue(max > 0.4); // and nearly all of it is in one band
+        }
+    }
+
+    @Test
+    public void silence_hasNoDominantFrequency() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(N, RATE, 4, 50);
+        double[] out = new double[a.getOutputSize()];
+        assertTrue(a.process(new short[N], 0, N, out));
+        for (double v : out) assertEquals(0, v, 0);
+    }
+
+    @Test
+    public void process_spansChunks() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(N, RATE, 4, 50);
+        short[] pcm = new short[300];
+        double[] out = new double[a.getOutputSize()];
+        int frames = 0, t = 0;
+        for (int chunk = 0; chunk < 10; ++chunk) {
+            for (int i = 0; i < pcm.length; ++i, ++t) pcm[i] = (short)(16000 * Math.sin(2 * Math.PI * 2000 * t / RATE));
+            if (a.process(pcm, 0, pcm.length, out)) ++frames;
+        }
+        assertEquals(2, frames); // 3000 samples is 2 full frames
+        assertEquals(2000, out[0], RATE / (double)N * 0.1);
+    }
+
+    @Test
+    public void benchmark_perWindowCost() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(N, RATE, 16, 50);
+        short[] pcm = new short[N];
+        Random rand = new Random(7);
+        for (int i = 0; i < N; ++i) pcm[i] = (short)rand.nextInt();
+        double[] out = new double[a.getOutputSize()];
+
+        for (int i = 0; i < 2000; ++i) a.process(pcm, 0, N, out); // warm up (let the jit settle)
+
+        java.lang.management.ThreadMXBean raw = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean bean = raw instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)raw : null;
+        long thread = Thread.currentThread().getId();
+
+        int windows = 5000;
+        long allocBefore = bean != null ? bean.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < windows; ++i) a.process(pcm, 0, N, out);
+        long elapsed = System.nanoTime() - start;
+        long allocAfter = bean != null ? bean.getThreadAllocatedBytes(thread) : 0;
+
+        double perWindowUs = elapsed / 1000.0 / windows;
+        double budgetUs = 1e6 * N / RATE; // real time available per window
+        System.out.printf("spectrum analyzer: %d-point fft, %.1f us per window (%.2f%% of real time)\n", N, perWindowUs, 100 * perWindowUs / budgetUs);
+
+        assertTrue(perWindowUs < budgetUs); // must keep up with the microphone, even on a slow ci box
+        if (bean != null) assertEquals(0, allocAfter - allocBefore);
+    }
+}
@@ -0,0 +1,50 @@
+package org.netsblox.phoneiot;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StationaryDetectorTest {
+    @Test
+    public void stillDevice_backsOffAfterStillTime() {
+        StationaryDetector d = new StationaryDetector(0.5, 30, 0);
+        Random rand = new Random(1);
+        for (int t = 0; t < 200; ++t) {
+            d.addAcceleration(9.81 + 0.05 * rand.nextGaussian(), t); // sensor noise only
+            if (t < 30) {
+                assertFalse(d.isStationary(t));
+                assertEquals(1, d.getBackoff(t, 16));
+            }
+        }
+        assertTrue(d.isStationary(30));
+        assertEquals(2, d.getBackoff(30, 16));
+        assertEquals(2, d.getBackoff(59, 16));
+        assertEquals(4, d.getBackoff(60, 16));
+        assertEquals(16, d.getBackoff(120, 16));
+        assertEquals(16, d.getBackoff(100000, 16));
+    }
+
+    @Test
+    public void motion_resetsBackoff() {
+        StationaryDetector d = new StationaryDetector(0.5, 30, 0);
+        for (int t = 0; t < 100; ++t) d.addAcceleration(9.81, t);
+        assertEquals(8, d.getBackoff(100, 16));
+
+        d.addAcceleration(12, 100); // picked up
+        assertFalse(d.isStationary(100));
+        assertEquals(1, d.getBackoff(100, 16));
+
+        d.addMotion(150); // e.g. a step
+        assertEquals(1, d.getBackoff(170, 16));
+        assertEquals(2, d.getBackoff(180, 16));
+    }
+
+    @Test
+    public void slowDrift_isNotMotion() {
+        StationaryDetector d = new StationaryDetector(0.5, 30, 0);
+        for (int t = 0; t < 100; ++t) d.addAcceleration(9.81 + t * 0.01, t); // e.g. temperature drift
+        assertTrue(d.isStationary(100));
+    }
+}